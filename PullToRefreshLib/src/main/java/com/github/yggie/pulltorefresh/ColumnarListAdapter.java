@@ -0,0 +1,729 @@
+package com.github.yggie.pulltorefresh;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.ImageView;
+import android.widget.ListAdapter;
+import android.widget.TextView;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A ListAdapter which stores its rows column by column in primitive arrays, as a memory efficient
+ * replacement for a SimpleAdapter backed by a List of Maps. Each column holds an index into a
+ * shared pool of deduplicated strings, which are stored back to back in a single char array.
+ * Views are bound using the same from/to mapping as SimpleAdapter.
+ *
+ * Changes to the rows are not reported automatically, call notifyDataSetChanged after modifying
+ * the adapter. The contents can be persisted with a {@link ColumnarListAdapter.Codec}.
+ */
+
+public class ColumnarListAdapter extends BaseAdapter implements PullListFragment.RetainedData {
+
+    /** the string index used for missing values */
+    private static final int NO_STRING = -1;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** identifies snapshots written by the Codec */
+    private static final int SNAPSHOT_MAGIC = 0x50545253;
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private final LayoutInflater inflater;
+    private final int resource;
+    private final String[] from;
+    private final int[] to;
+
+    /** row storage, one array per column holding string indices */
+    private int rowCount;
+    private long[] rowIds;
+    private int[][] columns;
+    private long nextRowId;
+
+    /** the string pool, strings are never modified once added */
+    private char[] chars;
+    private int charCount;
+    private int[] stringOffsets;
+    private int[] stringLengths;
+    private int[] stringHashes;
+    private int stringCount;
+
+    /** open addressing hash table of string indices, used for deduplication */
+    private int[] stringTable;
+
+    /**
+     * Creates an empty adapter
+     *
+     * @param context The context where the views are shown
+     * @param resource The layout resource used for each row
+     * @param from The column names, in the order values are given to addRow
+     * @param to The view IDs which display each column
+     */
+
+    public ColumnarListAdapter(Context context, int resource, String[] from, int[] to) {
+        if (from.length != to.length) {
+            throw new IllegalArgumentException("The from and to arrays must have the same length");
+        }
+
+        this.inflater = LayoutInflater.from(context);
+        this.resource = resource;
+        this.from = from.clone();
+        this.to = to.clone();
+        nextRowId = 0L;
+        clearStorage();
+    }
+
+    /**
+     * Returns the index of the column with the given name
+     *
+     * @param name The column name
+     * @return The column index, or -1 if the column does not exist
+     */
+
+    public int getColumnIndex(String name) {
+        for (int i = 0; i < from.length; i++) {
+            if (from[i].equals(name)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the number of columns in each row
+     *
+     * @return The number of columns
+     */
+
+    public int getColumnCount() {
+        return from.length;
+    }
+
+    /**
+     * Appends a row to the end of the adapter
+     *
+     * @param values The column values, in the same order as the from array
+     * @return The position of the new row
+     */
+
+    public int addRow(String... values) {
+        insertRow(rowCount, values);
+        return rowCount - 1;
+    }
+
+    /**
+     * Appends a row to the end of the adapter, using the same Map format as SimpleAdapter
+     *
+     * @param row The column values keyed by column name
+     * @return The position of the new row
+     */
+
+    public int addRow(Map<String, ?> row) {
+        final String[] values = new String[from.length];
+        for (int i = 0; i < from.length; i++) {
+            final Object value = row.get(from[i]);
+            values[i] = (value == null) ? null : value.toString();
+        }
+
+        return addRow(values);
+    }
+
+    /**
+     * Inserts a row at the given position, e.g. at 0 to add the results of a top refresh
+     *
+     * @param position The position of the new row
+     * @param values The column values, in the same order as the from array
+     */
+
+    public void insertRow(int position, String... values) {
+        if (position < 0 || position > rowCount) {
+            throw new IndexOutOfBoundsException("Invalid row position: " + position);
+        }
+        if (values.length > from.length) {
+            throw new IllegalArgumentException("Too many values for " + from.length + " columns");
+        }
+
+        ensureRowCapacity(rowCount + 1);
+        final int tail = rowCount - position;
+        System.arraycopy(rowIds, position, rowIds, position + 1, tail);
+        rowIds[position] = nextRowId++;
+
+        for (int i = 0; i < columns.length; i++) {
+            final int[] column = columns[i];
+            System.arraycopy(column, position, column, position + 1, tail);
+            column[position] = (i < values.length) ? intern(values[i]) : NO_STRING;
+        }
+
+        rowCount++;
+    }
+
+    /**
+     * Removes the row at the given position. Its strings remain in the pool until the adapter is
+     * cleared
+     *
+     * @param position The position of the row to remove
+     */
+
+    public void removeRow(int position) {
+        if (position < 0 || position >= rowCount) {
+            throw new IndexOutOfBoundsException("Invalid row position: " + position);
+        }
+
+        final int tail = rowCount - position - 1;
+        System.arraycopy(rowIds, position + 1, rowIds, position, tail);
+        for (int[] column : columns) {
+            System.arraycopy(column, position + 1, column, position, tail);
+        }
+
+        rowCount--;
+    }
+
+    /**
+     * Removes all the rows and releases the string pool
+     */
+
+    public void clear() {
+        clearStorage();
+    }
+
+    /**
+     * Copies the current contents, so they can be written on another thread
+     *
+     * @return An immutable copy of the rows and the string pool
+     */
+
+    public Snapshot snapshot() {
+        return new Snapshot(from, rowCount, nextRowId, Arrays.copyOf(rowIds, rowCount),
+                copyColumns(), Arrays.copyOf(chars, charCount),
+                Arrays.copyOf(stringOffsets, stringCount), Arrays.copyOf(stringLengths, stringCount));
+    }
+
+    /**
+     * Replaces the contents with a previously taken snapshot
+     *
+     * @param snapshot The snapshot to restore
+     */
+
+    public void restore(Snapshot snapshot) {
+        if (!Arrays.equals(from, snapshot.columnNames)) {
+            throw new IllegalArgumentException("The snapshot columns do not match the adapter");
+        }
+
+        clearStorage();
+        ensureStringCapacity(snapshot.stringOffsets.length, snapshot.chars.length);
+        System.arraycopy(snapshot.chars, 0, chars, 0, snapshot.chars.length);
+        charCount = snapshot.chars.length;
+        for (int i = 0; i < snapshot.stringOffsets.length; i++) {
+            final int offset = snapshot.stringOffsets[i];
+            final int length = snapshot.stringLengths[i];
+            int hash = 0;
+            for (int j = offset; j < offset + length; j++) {
+                // same as String.hashCode
+                hash = 31 * hash + chars[j];
+            }
+            stringOffsets[i] = offset;
+            stringLengths[i] = length;
+            stringHashes[i] = hash;
+        }
+        stringCount = snapshot.stringOffsets.length;
+        rehash(Math.max(2 * INITIAL_CAPACITY, Integer.highestOneBit(4 * stringCount)));
+
+        ensureRowCapacity(snapshot.rowCount);
+        System.arraycopy(snapshot.rowIds, 0, rowIds, 0, snapshot.rowCount);
+        for (int i = 0; i < columns.length; i++) {
+            System.arraycopy(snapshot.columns[i], 0, columns[i], 0, snapshot.rowCount);
+        }
+        rowCount = snapshot.rowCount;
+        nextRowId = snapshot.nextRowId;
+    }
+
+    /**
+     * Returns the value of a single column
+     *
+     * @param position The row position
+     * @param column The column index
+     * @return The column value, or null if it was not set
+     */
+
+    public String getString(int position, int column) {
+        final int index = columns[column][position];
+        if (index == NO_STRING) {
+            return null;
+        }
+
+        return new String(chars, stringOffsets[index], stringLengths[index]);
+    }
+
+    /**
+     * Returns the number of distinct strings held by the adapter
+     *
+     * @return The number of distinct strings
+     */
+
+    public int getDistinctStringCount() {
+        return stringCount;
+    }
+
+    /**
+     * Returns the approximate size of the storage arrays, including their spare capacity
+     *
+     * @return The size in bytes
+     */
+
+    @Override
+    public int getRetainedBytes() {
+        int bytes = 8 * rowIds.length + 2 * chars.length + 4 * stringTable.length;
+        bytes += 4 * (stringOffsets.length + stringLengths.length + stringHashes.length);
+        for (int[] column : columns) {
+            bytes += 4 * column.length;
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Returns the number of rows in the adapter
+     *
+     * @return The number of rows
+     */
+
+    @Override
+    public int getCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns a copy of the row at the given position. The adapter itself never calls this
+     * method, so rows are only materialized on request
+     *
+     * @param position The row position
+     * @return The column values, in the same order as the from array
+     */
+
+    @Override
+    public Object getItem(int position) {
+        final String[] row = new String[from.length];
+        for (int i = 0; i < from.length; i++) {
+            row[i] = getString(position, i);
+        }
+
+        return row;
+    }
+
+    /**
+     * Returns the stable ID of the row, which is kept when rows are inserted or removed around it
+     *
+     * @param position The row position
+     * @return The row ID
+     */
+
+    @Override
+    public long getItemId(int position) {
+        return rowIds[position];
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        final View view;
+        if (convertView == null) {
+            view = inflater.inflate(resource, parent, false);
+        } else {
+            view = convertView;
+        }
+
+        View[] holder = (View[])view.getTag();
+        if (holder == null) {
+            holder = new View[to.length];
+            for (int i = 0; i < to.length; i++) {
+                holder[i] = view.findViewById(to[i]);
+            }
+            view.setTag(holder);
+        }
+
+        for (int i = 0; i < holder.length; i++) {
+            bindView(holder[i], columns[i][position]);
+        }
+
+        return view;
+    }
+
+    /**
+     * Binds a pooled string to a view without creating a String object
+     *
+     * @param view The view to bind
+     * @param index The index of the string in the pool
+     */
+
+    private void bindView(View view, int index) {
+        if (view == null) {
+            return;
+        }
+
+        if (view instanceof TextView) {
+            if (index == NO_STRING) {
+                ((TextView)view).setText("");
+            } else {
+                // safe, as the pool is append only and is never written over
+                ((TextView)view).setText(chars, stringOffsets[index], stringLengths[index]);
+            }
+        } else if (view instanceof ImageView) {
+            if (index == NO_STRING) {
+                // recycled rows must not keep the image of their previous item
+                ((ImageView)view).setImageDrawable(null);
+            } else {
+                ((ImageView)view).setImageResource(parseInt(index));
+            }
+        } else {
+            throw new IllegalStateException(view.getClass().getName() + " is not a view that " +
+                    "can be bound by this ColumnarListAdapter");
+        }
+    }
+
+    /**
+     * Parses a pooled string as a resource ID
+     *
+     * @param index The index of the string in the pool
+     * @return The parsed integer
+     */
+
+    private int parseInt(int index) {
+        final int offset = stringOffsets[index];
+        final int end = offset + stringLengths[index];
+        int result = 0;
+        for (int i = offset; i < end; i++) {
+            final int digit = chars[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Not a resource ID: " +
+                        new String(chars, offset, end - offset));
+            }
+            result = 10 * result + digit;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the pool index of the given string, adding it if it has not been seen before
+     *
+     * @param value The string to add
+     * @return The index of the string in the pool
+     */
+
+    private int intern(String value) {
+        if (value == null) {
+            return NO_STRING;
+        }
+
+        final int hash = value.hashCode();
+        final int mask = stringTable.length - 1;
+        int slot = hash & mask;
+        while (stringTable[slot] != NO_STRING) {
+            final int index = stringTable[slot];
+            if (stringHashes[index] == hash && poolEquals(index, value)) {
+                return index;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        final int length = value.length();
+        ensureStringCapacity(stringCount + 1, charCount + length);
+        value.getChars(0, length, chars, charCount);
+
+        final int index = stringCount++;
+        stringOffsets[index] = charCount;
+        stringLengths[index] = length;
+        stringHashes[index] = hash;
+        charCount += length;
+
+        stringTable[slot] = index;
+        if (2 * stringCount > stringTable.length) {
+            rehash(2 * stringTable.length);
+        }
+
+        return index;
+    }
+
+    private boolean poolEquals(int index, String value) {
+        final int length = stringLengths[index];
+        if (length != value.length()) {
+            return false;
+        }
+
+        final int offset = stringOffsets[index];
+        for (int i = 0; i < length; i++) {
+            if (chars[offset + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void rehash(int tableSize) {
+        stringTable = new int[tableSize];
+        Arrays.fill(stringTable, NO_STRING);
+        final int mask = tableSize - 1;
+        for (int index = 0; index < stringCount; index++) {
+            int slot = stringHashes[index] & mask;
+            while (stringTable[slot] != NO_STRING) {
+                slot = (slot + 1) & mask;
+            }
+            stringTable[slot] = index;
+        }
+    }
+
+    private int[][] copyColumns() {
+        final int[][] copy = new int[columns.length][];
+        for (int i = 0; i < columns.length; i++) {
+            copy[i] = Arrays.copyOf(columns[i], rowCount);
+        }
+
+        return copy;
+    }
+
+    private void ensureRowCapacity(int capacity) {
+        if (capacity <= rowIds.length) {
+            return;
+        }
+
+        final int newCapacity = Math.max(capacity, 2 * rowIds.length);
+        rowIds = Arrays.copyOf(rowIds, newCapacity);
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = Arrays.copyOf(columns[i], newCapacity);
+        }
+    }
+
+    private void ensureStringCapacity(int count, int charCapacity) {
+        if (count > stringOffsets.length) {
+            final int newCapacity = Math.max(count, 2 * stringOffsets.length);
+            stringOffsets = Arrays.copyOf(stringOffsets, newCapacity);
+            stringLengths = Arrays.copyOf(stringLengths, newCapacity);
+            stringHashes = Arrays.copyOf(stringHashes, newCapacity);
+        }
+
+        if (charCapacity > chars.length) {
+            // bound views keep a reference to the old array, which remains valid
+            final char[] newChars = new char[Math.max(charCapacity, 2 * chars.length)];
+            System.arraycopy(chars, 0, newChars, 0, charCount);
+            chars = newChars;
+        }
+    }
+
+    /**
+     * Allocates new storage, existing arrays may still be referenced by bound views and must not
+     * be reused
+     */
+
+    private void clearStorage() {
+        rowCount = 0;
+        rowIds = new long[INITIAL_CAPACITY];
+        columns = new int[from.length][INITIAL_CAPACITY];
+
+        charCount = 0;
+        chars = new char[INITIAL_CAPACITY * 8];
+        stringCount = 0;
+        stringOffsets = new int[INITIAL_CAPACITY];
+        stringLengths = new int[INITIAL_CAPACITY];
+        stringHashes = new int[INITIAL_CAPACITY];
+        stringTable = new int[2 * INITIAL_CAPACITY];
+        Arrays.fill(stringTable, NO_STRING);
+    }
+
+    /**
+     * An immutable copy of the adapter contents
+     */
+
+    public static class Snapshot {
+
+        private final String[] columnNames;
+        private final int rowCount;
+        private final long nextRowId;
+        private final long[] rowIds;
+        private final int[][] columns;
+        private final char[] chars;
+        private final int[] stringOffsets;
+        private final int[] stringLengths;
+
+        private Snapshot(String[] columnNames, int rowCount, long nextRowId, long[] rowIds,
+                         int[][] columns, char[] chars, int[] stringOffsets, int[] stringLengths) {
+            this.columnNames = columnNames;
+            this.rowCount = rowCount;
+            this.nextRowId = nextRowId;
+            this.rowIds = rowIds;
+            this.columns = columns;
+            this.chars = chars;
+            this.stringOffsets = stringOffsets;
+            this.stringLengths = stringLengths;
+        }
+
+        /**
+         * Returns the number of rows in the snapshot
+         *
+         * @return The number of rows
+         */
+
+        public int getRowCount() {
+            return rowCount;
+        }
+    }
+
+    /**
+     * Persists ColumnarListAdapter contents for
+     * {@link PullListFragment#setSnapshot(java.io.File, PullListFragment.SnapshotCodec)}. The
+     * snapshot stores the arrays as they are, so reading it back needs no string parsing
+     */
+
+    public static class Codec implements PullListFragment.SnapshotCodec<Snapshot> {
+
+        private final Context context;
+        private final int resource;
+        private final String[] from;
+        private final int[] to;
+
+        /**
+         * Creates a codec for adapters with the given configuration
+         *
+         * @param context The context where the views are shown
+         * @param resource The layout resource used for each row
+         * @param from The column names
+         * @param to The view IDs which display each column
+         */
+
+        public Codec(Context context, int resource, String[] from, int[] to) {
+            this.context = context;
+            this.resource = resource;
+            this.from = from.clone();
+            this.to = to.clone();
+        }
+
+        @Override
+        public Snapshot capture(ListAdapter adapter) {
+            if (adapter instanceof ColumnarListAdapter) {
+                return ((ColumnarListAdapter)adapter).snapshot();
+            }
+
+            return null;
+        }
+
+        @Override
+        public void write(Snapshot snapshot, DataOutputStream out) throws IOException {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+
+            out.writeInt(snapshot.columnNames.length);
+            for (String name : snapshot.columnNames) {
+                out.writeUTF(name);
+            }
+
+            out.writeInt(snapshot.chars.length);
+            for (char c : snapshot.chars) {
+                out.writeChar(c);
+            }
+            out.writeInt(snapshot.stringOffsets.length);
+            for (int i = 0; i < snapshot.stringOffsets.length; i++) {
+                out.writeInt(snapshot.stringOffsets[i]);
+                out.writeInt(snapshot.stringLengths[i]);
+            }
+
+            out.writeInt(snapshot.rowCount);
+            out.writeLong(snapshot.nextRowId);
+            for (int i = 0; i < snapshot.rowCount; i++) {
+                out.writeLong(snapshot.rowIds[i]);
+            }
+            for (int[] column : snapshot.columns) {
+                for (int i = 0; i < snapshot.rowCount; i++) {
+                    out.writeInt(column[i]);
+                }
+            }
+        }
+
+        @Override
+        public Snapshot read(DataInputStream in) throws IOException {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Not a ColumnarListAdapter snapshot");
+            }
+
+            final String[] columnNames = new String[readCount(in, "column")];
+            for (int i = 0; i < columnNames.length; i++) {
+                columnNames[i] = in.readUTF();
+            }
+            if (!Arrays.equals(from, columnNames)) {
+                throw new IOException("The snapshot columns do not match the adapter");
+            }
+
+            final char[] chars = new char[readCount(in, "char")];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = in.readChar();
+            }
+            final int stringCount = readCount(in, "string");
+            final int[] stringOffsets = new int[stringCount];
+            final int[] stringLengths = new int[stringCount];
+            for (int i = 0; i < stringCount; i++) {
+                stringOffsets[i] = in.readInt();
+                stringLengths[i] = in.readInt();
+                if (stringOffsets[i] < 0 || stringLengths[i] < 0 ||
+                        (long)stringOffsets[i] + stringLengths[i] > chars.length) {
+                    throw new IOException("Corrupt snapshot, string " + i + " is out of bounds");
+                }
+            }
+
+            final int rowCount = readCount(in, "row");
+            final long nextRowId = in.readLong();
+            final long[] rowIds = new long[rowCount];
+            for (int i = 0; i < rowCount; i++) {
+                rowIds[i] = in.readLong();
+            }
+            final int[][] columns = new int[columnNames.length][rowCount];
+            for (int[] column : columns) {
+                for (int i = 0; i < rowCount; i++) {
+                    column[i] = in.readInt();
+                    if (column[i] != NO_STRING && (column[i] < 0 || column[i] >= stringCount)) {
+                        throw new IOException("Corrupt snapshot, unknown string " + column[i]);
+                    }
+                }
+            }
+
+            return new Snapshot(columnNames, rowCount, nextRowId, rowIds, columns, chars,
+                    stringOffsets, stringLengths);
+        }
+
+        /**
+         * Reads a count, rejecting the negative values of a corrupt snapshot before anything is
+         * allocated with them
+         *
+         * @param in The stream to read from
+         * @param what What is counted, for the error message
+         * @return The count
+         * @throws IOException If the count is negative or could not be read
+         */
+
+        private static int readCount(DataInputStream in, String what) throws IOException {
+            final int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Corrupt snapshot, negative " + what + " count: " + count);
+            }
+
+            return count;
+        }
+
+        @Override
+        public ListAdapter createAdapter(Snapshot snapshot) {
+            final ColumnarListAdapter adapter = new ColumnarListAdapter(context, resource, from, to);
+            adapter.restore(snapshot);
+            return adapter;
+        }
+    }
+}
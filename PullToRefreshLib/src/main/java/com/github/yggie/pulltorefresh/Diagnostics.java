@@ -0,0 +1,194 @@
+package com.github.yggie.pulltorefresh;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Collects diagnostics for the whole library. Hot paths record structured events, a type and a
+ * numeric value, into a fixed size ring buffer, so no strings are built while the user is
+ * pulling. The events are only formatted when they are dumped.
+ *
+ * Diagnostics are filtered twice. {@link #COMPILE_LEVEL} is a constant, every check against a
+ * higher level is removed by the compiler. The runtime level, set with {@link #setLevel(int)},
+ * filters what is left. The event calls can also be stripped from release builds entirely, but
+ * only if the app copies the -assumenosideeffects rule of the library's proguard-rules.txt into
+ * its own ProGuard configuration, the library does not apply it to apps.
+ */
+
+public final class Diagnostics {
+
+    private static final String TAG = Diagnostics.class.getSimpleName();
+
+    /** the diagnostic levels, each including the ones below */
+    public static final int LEVEL_NONE = 0;
+    public static final int LEVEL_ERROR = 1;
+    public static final int LEVEL_WARN = 2;
+    public static final int LEVEL_EVENT = 3;
+
+    /** the highest level compiled into the library, lower it to compile diagnostics out */
+    public static final int COMPILE_LEVEL = LEVEL_EVENT;
+
+    /** the event types */
+    public static final int EVENT_PULL_STARTED = 0;
+    public static final int EVENT_PULL_THRESHOLD = 1;
+    public static final int EVENT_REFRESH_REQUEST = 2;
+    public static final int EVENT_REQUEST_COMPLETE = 3;
+    public static final int EVENT_PULL_END = 4;
+    public static final int EVENT_PULL_STATE = 5;
+    public static final int EVENT_STATUS_STATE = 6;
+    public static final int EVENT_SPINNER_TURN = 7;
+    public static final int EVENT_RESULT_DROPPED = 8;
+
+    private static final String[] EVENT_NAMES = {
+            "pullStarted",
+            "pullThreshold",
+            "refreshRequest",
+            "requestComplete",
+            "pullEnd",
+            "pullState",
+            "statusState",
+            "spinnerTurn",
+            "resultDropped"
+    };
+
+    /** the capacity of the ring buffer, a power of two */
+    private static final int CAPACITY = 256;
+
+    /** the level in use, never above the compile level */
+    private static int level = LEVEL_WARN;
+
+    /** the ring buffer, in parallel arrays */
+    private static final long[] times = new long[CAPACITY];
+    private static final int[] types = new int[CAPACITY];
+    private static final long[] values = new long[CAPACITY];
+    private static int next = 0;
+    private static int count = 0;
+
+    private Diagnostics() {
+        // not instantiable
+    }
+
+    /**
+     * Set the runtime level. Levels above the compile level have no effect
+     *
+     * @param level The new level, one of the LEVEL constants
+     */
+
+    public static void setLevel(int level) {
+        Diagnostics.level = Math.min(level, COMPILE_LEVEL);
+    }
+
+    public static int getLevel() {
+        return level;
+    }
+
+    /**
+     * Returns true if diagnostics of the given level are recorded
+     *
+     * @param level The level to check
+     * @return True if the level is enabled
+     */
+
+    public static boolean isEnabled(int level) {
+        return level <= COMPILE_LEVEL && level <= Diagnostics.level;
+    }
+
+    /**
+     * Records an event in the ring buffer, overwriting the oldest one when full. Never allocates
+     *
+     * @param type The event type, one of the EVENT constants
+     * @param value A value describing the event, e.g. the ordinal of a state
+     */
+
+    public static void event(int type, long value) {
+        if (COMPILE_LEVEL < LEVEL_EVENT || level < LEVEL_EVENT) {
+            return;
+        }
+
+        synchronized (types) {
+            times[next] = SystemClock.uptimeMillis();
+            types[next] = type;
+            values[next] = value;
+            next = (next + 1) & (CAPACITY - 1);
+            if (count < CAPACITY) {
+                count++;
+            }
+        }
+    }
+
+    /**
+     * Reports a recoverable problem
+     *
+     * @param tag The tag of the reporting class
+     * @param message The message
+     * @param e The cause, may be null
+     */
+
+    public static void warn(String tag, String message, Throwable e) {
+        if (COMPILE_LEVEL >= LEVEL_WARN && level >= LEVEL_WARN) {
+            Log.w(tag, message, e);
+        }
+    }
+
+    /**
+     * Reports a condition which should never happen
+     *
+     * @param tag The tag of the reporting class
+     * @param message The message
+     */
+
+    public static void error(String tag, String message) {
+        if (COMPILE_LEVEL >= LEVEL_ERROR && level >= LEVEL_ERROR) {
+            Log.wtf(tag, message);
+        }
+    }
+
+    /**
+     * Returns the number of events held in the ring buffer
+     *
+     * @return The number of events
+     */
+
+    public static int getEventCount() {
+        synchronized (types) {
+            return count;
+        }
+    }
+
+    /**
+     * Formats the buffered events, oldest first
+     *
+     * @param builder The builder to append the events to
+     */
+
+    public static void dump(StringBuilder builder) {
+        synchronized (types) {
+            final int first = (next - count) & (CAPACITY - 1);
+            for (int i = 0; i < count; i++) {
+                final int index = (first + i) & (CAPACITY - 1);
+                final int type = types[index];
+                builder.append(times[index]).append(' ')
+                        .append(type >= 0 && type < EVENT_NAMES.length ? EVENT_NAMES[type] : "event" + type)
+                        .append(' ').append(values[index]).append('\n');
+            }
+        }
+    }
+
+    /**
+     * Writes the buffered events to the log and clears the buffer
+     */
+
+    public static void dumpToLog() {
+        final StringBuilder builder = new StringBuilder();
+        dump(builder);
+        clear();
+        Log.d(TAG, builder.toString());
+    }
+
+    public static void clear() {
+        synchronized (types) {
+            next = 0;
+            count = 0;
+        }
+    }
+}
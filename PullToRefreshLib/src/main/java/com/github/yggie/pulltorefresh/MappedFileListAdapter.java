@@ -0,0 +1,467 @@
+package com.github.yggie.pulltorefresh;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A read-only ListAdapter which serves its rows straight from a memory-mapped file, for very
+ * large static lists. Opening the adapter only maps the file and reads its header, the rows stay
+ * outside of the Java heap and each field is decoded when it is bound to a view.
+ *
+ * Files are created with {@link MappedFileListAdapter.Writer}. The format is a header, followed
+ * by the column names, the row data and finally an index holding the offset of each row:
+ *
+ * <pre>
+ * int magic, int version, int rowCount, int columnCount, int indexOffset
+ * columnCount x field (column names)
+ * rowCount x (columnCount x field)
+ * rowCount x int (row offsets)
+ * </pre>
+ *
+ * where a field is an int length, or -1 for a missing value, followed by that many UTF-16 chars.
+ *
+ * Unlike {@link ColumnarListAdapter}, every column is bound as text, so the views given in
+ * {@code to} must all be TextViews. Any other view is rejected when the first row is bound.
+ */
+
+public class MappedFileListAdapter extends BaseAdapter {
+
+    private static final int MAGIC = 0x5054524d;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+
+    /** the length used for missing values */
+    private static final int NO_VALUE = -1;
+
+    private final LayoutInflater inflater;
+    private final int resource;
+    private final int[] to;
+
+    /** the column index displayed by each view */
+    private final int[] columnIndices;
+
+    private final MappedByteBuffer buffer;
+    private final int rowCount;
+    private final int columnCount;
+    private final int indexOffset;
+    private final String[] columnNames;
+
+    /**
+     * Maps the given file and creates an adapter displaying its rows
+     *
+     * @param context The context where the views are shown
+     * @param file The file created by a Writer
+     * @param resource The layout resource used for each row
+     * @param from The names of the columns to display
+     * @param to The IDs of the TextViews which display each column
+     * @throws IOException If the file could not be mapped or has an invalid format
+     */
+
+    public MappedFileListAdapter(Context context, File file, int resource, String[] from, int[] to)
+            throws IOException {
+        if (from.length != to.length) {
+            throw new IllegalArgumentException("The from and to arrays must have the same length");
+        }
+
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = randomAccessFile.getChannel();
+            // the mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            randomAccessFile.close();
+        }
+
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a mapped list file: " + file);
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported mapped list version: " + buffer.getInt(4));
+        }
+
+        rowCount = buffer.getInt(8);
+        columnCount = buffer.getInt(12);
+        indexOffset = buffer.getInt(16);
+        if (rowCount < 0 || columnCount < 0 || indexOffset < HEADER_SIZE) {
+            throw new IOException("Corrupt mapped list header: " + file);
+        }
+        if (indexOffset + 4L * rowCount > buffer.capacity()) {
+            throw new IOException("Truncated mapped list file: " + file);
+        }
+
+        // the column names must end before the rows, at the latest where the index starts
+        columnNames = new String[columnCount];
+        int offset = HEADER_SIZE;
+        for (int i = 0; i < columnCount; i++) {
+            if (!isValidField(offset, indexOffset)) {
+                throw new IOException("Corrupt column name " + i + " in mapped list file: " + file);
+            }
+            columnNames[i] = readString(offset);
+            offset = skipField(offset);
+        }
+
+        columnIndices = new int[from.length];
+        for (int i = 0; i < from.length; i++) {
+            columnIndices[i] = getColumnIndex(from[i]);
+            if (columnIndices[i] == -1) {
+                throw new IllegalArgumentException("Unknown column: " + from[i]);
+            }
+        }
+
+        this.inflater = LayoutInflater.from(context);
+        this.resource = resource;
+        this.to = to.clone();
+    }
+
+    /**
+     * Returns the index of the column with the given name
+     *
+     * @param name The column name
+     * @return The column index, or -1 if the column does not exist
+     */
+
+    public int getColumnIndex(String name) {
+        for (int i = 0; i < columnNames.length; i++) {
+            if (columnNames[i].equals(name)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the number of columns stored in the file
+     *
+     * @return The number of columns
+     */
+
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    /**
+     * Decodes the value of a single column
+     *
+     * @param position The row position
+     * @param column The column index
+     * @return The column value, or null if it was not set
+     */
+
+    public String getString(int position, int column) {
+        return readString(fieldOffset(position, column));
+    }
+
+    @Override
+    public int getCount() {
+        return rowCount;
+    }
+
+    /**
+     * Decodes the row at the given position. The adapter itself never calls this method, so rows
+     * are only materialized on request
+     *
+     * @param position The row position
+     * @return The column values, in the order they are stored in the file
+     */
+
+    @Override
+    public Object getItem(int position) {
+        final String[] row = new String[columnCount];
+        int offset = buffer.getInt(indexOffset + 4 * position);
+        for (int i = 0; i < columnCount; i++) {
+            row[i] = readString(offset);
+            offset = skipField(offset);
+        }
+
+        return row;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        // the file is read-only, so positions never change
+        return true;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        final View view;
+        if (convertView == null) {
+            view = inflater.inflate(resource, parent, false);
+        } else {
+            view = convertView;
+        }
+
+        RowHolder holder = (RowHolder)view.getTag();
+        if (holder == null) {
+            holder = new RowHolder(view, to);
+            view.setTag(holder);
+        }
+
+        for (int i = 0; i < to.length; i++) {
+            final TextView textView = holder.views[i];
+            if (textView != null) {
+                bindText(textView, holder, i, fieldOffset(position, columnIndices[i]));
+            }
+        }
+
+        return view;
+    }
+
+    /**
+     * Decodes a field into the char buffer owned by the view, and binds it without creating a
+     * String object. The buffer is only modified right before it is passed to setText again
+     *
+     * @param textView The view to bind
+     * @param holder The holder of the row view
+     * @param index The index of the view in the holder
+     * @param offset The offset of the field in the file
+     */
+
+    private void bindText(TextView textView, RowHolder holder, int index, int offset) {
+        final int length = fieldLength(offset);
+        if (length == NO_VALUE) {
+            textView.setText("");
+            return;
+        }
+
+        char[] chars = holder.buffers[index];
+        if (chars == null || chars.length < length) {
+            chars = new char[Math.max(length, 32)];
+            holder.buffers[index] = chars;
+        }
+
+        final int start = offset + 4;
+        for (int i = 0; i < length; i++) {
+            chars[i] = buffer.getChar(start + 2 * i);
+        }
+        textView.setText(chars, 0, length);
+    }
+
+    /**
+     * Returns the offset of a field, by skipping the preceding fields of the row
+     *
+     * @param position The row position
+     * @param column The column index
+     * @return The offset of the field in the file
+     */
+
+    private int fieldOffset(int position, int column) {
+        int offset = buffer.getInt(indexOffset + 4 * position);
+        for (int i = 0; i < column; i++) {
+            offset = skipField(offset);
+        }
+
+        return offset;
+    }
+
+    private int skipField(int offset) {
+        final int length = fieldLength(offset);
+        return offset + 4 + (length == NO_VALUE ? 0 : 2 * length);
+    }
+
+    private String readString(int offset) {
+        final int length = fieldLength(offset);
+        if (length == NO_VALUE) {
+            return null;
+        }
+
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = buffer.getChar(offset + 4 + 2 * i);
+        }
+
+        return new String(chars);
+    }
+
+    /**
+     * Returns true if a whole field lies within the given limit
+     *
+     * @param offset The offset of the field in the file
+     * @param limit The offset the field must end before
+     * @return True if the field is valid
+     */
+
+    private boolean isValidField(int offset, int limit) {
+        if (offset < 0 || offset + 4L > limit) {
+            return false;
+        }
+
+        final int length = buffer.getInt(offset);
+        return length >= NO_VALUE && offset + 4L + (length == NO_VALUE ? 0 : 2L * length) <= limit;
+    }
+
+    /**
+     * Returns the length of a field, checking that the field lies within the file. Rows are only
+     * decoded when they are bound, so a corrupt row is found here rather than when the file is
+     * opened
+     *
+     * @param offset The offset of the field in the file
+     * @return The number of chars in the field, or NO_VALUE for a missing value
+     * @throws IllegalStateException If the field runs past the end of the file
+     */
+
+    private int fieldLength(int offset) {
+        if (!isValidField(offset, buffer.capacity())) {
+            throw new IllegalStateException("Corrupt mapped list field at offset " + offset);
+        }
+
+        return buffer.getInt(offset);
+    }
+
+    /**
+     * Holds the views of a row, and the char buffers bound to them
+     */
+
+    private static class RowHolder {
+
+        private final TextView[] views;
+        private final char[][] buffers;
+
+        private RowHolder(View view, int[] to) {
+            views = new TextView[to.length];
+            buffers = new char[to.length][];
+            for (int i = 0; i < to.length; i++) {
+                final View child = view.findViewById(to[i]);
+                if (child != null && !(child instanceof TextView)) {
+                    throw new IllegalStateException(child.getClass().getName() + " is not a " +
+                            "view that can be bound by this MappedFileListAdapter");
+                }
+                views[i] = (TextView)child;
+            }
+        }
+    }
+
+    /**
+     * Writes rows in the format read by MappedFileListAdapter. Rows are streamed to the file, only
+     * their offsets are kept in memory until the writer is closed
+     */
+
+    public static class Writer {
+
+        private final File file;
+        private final int columnCount;
+        private final DataOutputStream out;
+        private int[] rowOffsets;
+        private int rowCount;
+
+        /**
+         * Creates the file and writes the column names
+         *
+         * @param file The file to write
+         * @param columns The column names
+         * @throws IOException If the file could not be written
+         */
+
+        public Writer(File file, String[] columns) throws IOException {
+            this.file = file;
+            this.columnCount = columns.length;
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            rowOffsets = new int[64];
+            rowCount = 0;
+
+            // the header is completed when the writer is closed
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(0);
+                out.writeInt(columnCount);
+                out.writeInt(0);
+                for (String column : columns) {
+                    writeField(column);
+                }
+            } catch (IOException e) {
+                closeQuietly();
+                throw e;
+            } catch (RuntimeException e) {
+                closeQuietly();
+                throw e;
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the original failure is rethrown
+            }
+        }
+
+        /**
+         * Appends a row to the file
+         *
+         * @param values The column values, in the same order as the column names
+         * @throws IOException If the file could not be written
+         */
+
+        public void addRow(String... values) throws IOException {
+            if (values.length > columnCount) {
+                throw new IllegalArgumentException("Too many values for " + columnCount + " columns");
+            }
+
+            if (rowCount == rowOffsets.length) {
+                rowOffsets = Arrays.copyOf(rowOffsets, 2 * rowCount);
+            }
+            rowOffsets[rowCount++] = out.size();
+
+            for (int i = 0; i < columnCount; i++) {
+                writeField(i < values.length ? values[i] : null);
+            }
+        }
+
+        /**
+         * Writes the row index and completes the header
+         *
+         * @throws IOException If the file could not be written
+         */
+
+        public void close() throws IOException {
+            final int indexOffset = out.size();
+            try {
+                for (int i = 0; i < rowCount; i++) {
+                    out.writeInt(rowOffsets[i]);
+                }
+            } finally {
+                out.close();
+            }
+
+            final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                randomAccessFile.seek(8);
+                randomAccessFile.writeInt(rowCount);
+                randomAccessFile.seek(16);
+                randomAccessFile.writeInt(indexOffset);
+            } finally {
+                randomAccessFile.close();
+            }
+        }
+
+        private void writeField(String value) throws IOException {
+            if (value == null) {
+                out.writeInt(NO_VALUE);
+            } else {
+                out.writeInt(value.length());
+                out.writeChars(value);
+            }
+        }
+    }
+}
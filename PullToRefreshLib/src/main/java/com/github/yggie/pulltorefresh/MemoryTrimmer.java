@@ -0,0 +1,174 @@
+package com.github.yggie.pulltorefresh;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+
+import java.util.ArrayList;
+
+/**
+ * Propagates memory pressure to every cache held by the library. Caches implement
+ * {@link MemoryTrimmer.Trimmable} and are registered with {@link #register(Context, Trimmable)},
+ * each trim level is then translated to a {@link MemoryTrimmer.TrimPolicy} shared by all caches.
+ *
+ * Trim levels are received through ComponentCallbacks2 from API 14. On older devices only low
+ * memory is reported, forwarded by the fragments of the library, or by the application calling
+ * {@link #dispatchLowMemory()}. All methods must be called from the UI thread.
+ */
+
+public final class MemoryTrimmer {
+
+    /**
+     * What a cache should release for a given trim level
+     */
+
+    public static enum TrimPolicy {
+        /** nothing has to be released */
+        NONE,
+        /** caches should shrink to half their budget */
+        SHRINK,
+        /** data which is not shown, e.g. offscreen pages or detached lists, should be dropped */
+        DROP_OFFSCREEN,
+        /** everything which can be recreated should be dropped */
+        DROP_ALL;
+
+        /**
+         * Returns the policy for a trim level given to onTrimMemory
+         *
+         * @param level The trim level
+         * @return The policy for the level
+         */
+
+        public static TrimPolicy forLevel(int level) {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+                return DROP_ALL;
+            } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+                return DROP_OFFSCREEN;
+            } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+                return SHRINK;
+            } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+                return DROP_OFFSCREEN;
+            } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+                return SHRINK;
+            }
+
+            return NONE;
+        }
+    }
+
+    /**
+     * Implemented by caches which can release memory on demand
+     */
+
+    public static interface Trimmable {
+
+        /**
+         * Called when memory should be released
+         *
+         * @param policy What should be released, never NONE
+         */
+
+        public void onTrimMemory(TrimPolicy policy);
+    }
+
+    /** the registered caches, held strongly until they are unregistered */
+    private static final ArrayList<Trimmable> trimmables = new ArrayList<Trimmable>();
+
+    /** the callbacks registered with the application, only available from API 14 */
+    private static ComponentCallbacks2 callbacks;
+
+    private MemoryTrimmer() {
+        // not instantiable
+    }
+
+    /**
+     * Registers a cache to be trimmed on memory pressure. Registering a cache twice has no effect
+     *
+     * @param context Any context of the application
+     * @param trimmable The cache
+     */
+
+    public static void register(Context context, Trimmable trimmable) {
+        install(context);
+        if (!trimmables.contains(trimmable)) {
+            trimmables.add(trimmable);
+        }
+    }
+
+    /**
+     * Unregisters a cache, it will no longer be trimmed
+     *
+     * @param trimmable The cache
+     */
+
+    public static void unregister(Trimmable trimmable) {
+        trimmables.remove(trimmable);
+    }
+
+    /**
+     * Applies the policy of the trim level to every registered cache
+     *
+     * @param level The trim level, as given to onTrimMemory
+     */
+
+    public static void dispatchTrimMemory(int level) {
+        dispatch(TrimPolicy.forLevel(level));
+    }
+
+    /**
+     * Drops everything from every registered cache. Applications supporting devices older than
+     * API 14 without a PullListFragment on screen should call this from Application.onLowMemory
+     */
+
+    public static void dispatchLowMemory() {
+        dispatch(TrimPolicy.DROP_ALL);
+    }
+
+    /**
+     * Forwards onLowMemory from a component, only on devices where the trim callbacks are not
+     * available, so that the caches are not trimmed twice
+     */
+
+    static void onComponentLowMemory() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            dispatchLowMemory();
+        }
+    }
+
+    private static void dispatch(TrimPolicy policy) {
+        if (policy == TrimPolicy.NONE) {
+            return;
+        }
+
+        // caches may unregister themselves while being trimmed
+        final Trimmable[] targets = trimmables.toArray(new Trimmable[trimmables.size()]);
+        for (int i = 0; i < targets.length; i++) {
+            targets[i].onTrimMemory(policy);
+        }
+    }
+
+    private static void install(Context context) {
+        if (callbacks != null || Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            return;
+        }
+
+        callbacks = new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                dispatchTrimMemory(level);
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+                // do nothing
+            }
+
+            @Override
+            public void onLowMemory() {
+                dispatchLowMemory();
+            }
+        };
+        context.getApplicationContext().registerComponentCallbacks(callbacks);
+    }
+}
@@ -0,0 +1,543 @@
+package com.github.yggie.pulltorefresh;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.TypedArray;
+import android.os.Build;
+import android.support.v4.util.LruCache;
+import android.util.AttributeSet;
+import android.util.DisplayMetrics;
+import android.util.TypedValue;
+import android.widget.ListView;
+
+/**
+ * An immutable configuration for a {@link PullListFragment}, holding everything which can be set
+ * through the XML attributes of the fragment. Configurations parsed from plain attributes are
+ * cached, so fragments sharing the same attributes only parse them once. A configuration can
+ * also be created programmatically with a {@link PullConfig.Builder}, and shared by any number
+ * of fragments.
+ */
+
+public final class PullConfig {
+
+    /** different modes of operation, as given by the top_mode and bottom_mode attributes */
+    private static final int MODE_PULL = 1;
+
+    /** the indices of the status texts */
+    private static final int TEXT_PULL_STARTED = 0;
+    private static final int TEXT_PULL_THRESHOLD = 1;
+    private static final int TEXT_REFRESHING = 2;
+    private static final int TEXT_REFRESH_SUCCESS = 3;
+    private static final int TEXT_REFRESH_FAILED = 4;
+    private static final int TEXT_COUNT = 5;
+
+    /** the configurations parsed from attributes, keyed by the attribute values */
+    private static final LruCache<String, PullConfig> cache = new LruCache<String, PullConfig>(32);
+
+    /** a configuration which changes nothing */
+    public static final PullConfig DEFAULT = new Builder().build();
+
+    private final Integer listBackgroundColor;
+    private final int listPaddingLeft;
+    private final int listPaddingTop;
+    private final int listPaddingRight;
+    private final int listPaddingBottom;
+    private final PulledViewConfig top;
+    private final PulledViewConfig bottom;
+    private final int emptyViewResId;
+    private final String emptyText;
+    private final Integer pullDelay;
+    private final Float damping;
+    private final Float easing;
+
+    private PullConfig(Builder builder) {
+        listBackgroundColor = builder.listBackgroundColor;
+        listPaddingLeft = builder.listPaddingLeft;
+        listPaddingTop = builder.listPaddingTop;
+        listPaddingRight = builder.listPaddingRight;
+        listPaddingBottom = builder.listPaddingBottom;
+        top = new PulledViewConfig(builder.top);
+        bottom = new PulledViewConfig(builder.bottom);
+        emptyViewResId = builder.emptyViewResId;
+        emptyText = builder.emptyText;
+        pullDelay = builder.pullDelay;
+        damping = builder.damping;
+        easing = builder.easing;
+    }
+
+    /**
+     * Returns the configuration for the given attributes, parsing them only if no fragment with
+     * the same attributes has been configured before. Attributes referring to the theme or a style
+     * are parsed every time
+     *
+     * @param context The context the fragment is inflated in
+     * @param attrs The attributes of the fragment tag
+     * @return The configuration
+     */
+
+    public static PullConfig fromAttributes(Context context, AttributeSet attrs) {
+        final String key = cacheKey(context, attrs);
+        PullConfig config = key != null ? cache.get(key) : null;
+        if (config == null) {
+            final TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.PullListFragment);
+            try {
+                config = parse(a);
+            } finally {
+                a.recycle();
+            }
+            if (key != null) {
+                cache.put(key, config);
+            }
+        }
+
+        return config;
+    }
+
+    /**
+     * Builds the cache key from the raw attribute values and the configuration fields resources
+     * may be qualified by. Values resolved through the theme depend on the styles applied to it,
+     * which cannot be read back, so attributes using a style or theme attribute are not cached.
+     * Fragment attributes set directly on the theme are not supported by the cache
+     *
+     * @param context The context the fragment is inflated in
+     * @param attrs The attributes of the fragment tag
+     * @return The cache key, or null if the attributes cannot be cached
+     */
+
+    private static String cacheKey(Context context, AttributeSet attrs) {
+        if (attrs.getStyleAttribute() != 0) {
+            return null;
+        }
+
+        final Configuration configuration = context.getResources().getConfiguration();
+        final DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        final StringBuilder builder = new StringBuilder(128);
+        builder.append(configuration.locale).append('/')
+                .append(configuration.mcc).append('/')
+                .append(configuration.mnc).append('/')
+                .append(configuration.orientation).append('/')
+                .append(configuration.screenLayout).append('/')
+                .append(configuration.uiMode).append('/')
+                .append(configuration.touchscreen).append('/')
+                .append(configuration.keyboard).append('/')
+                .append(configuration.keyboardHidden).append('/')
+                .append(configuration.navigation).append('/')
+                .append(configuration.navigationHidden).append('/')
+                .append(configuration.fontScale).append('/')
+                .append(metrics.densityDpi).append('/')
+                .append(metrics.density);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR2) {
+            builder.append('/').append(configuration.screenWidthDp)
+                    .append('/').append(configuration.screenHeightDp)
+                    .append('/').append(configuration.smallestScreenWidthDp);
+        }
+
+        final int count = attrs.getAttributeCount();
+        for (int i = 0; i < count; i++) {
+            final String value = attrs.getAttributeValue(i);
+            if (value != null && value.startsWith("?")) {
+                return null;
+            }
+            builder.append('\n').append(attrs.getAttributeName(i)).append('=').append(value);
+        }
+
+        return builder.toString();
+    }
+
+    private static PullConfig parse(TypedArray a) {
+        final Builder builder = new Builder();
+
+        if (a.hasValue(R.styleable.PullListFragment_list_backgroundColor)) {
+            builder.setListBackgroundColor(a.getColor(R.styleable.PullListFragment_list_backgroundColor, 0));
+        }
+
+        // more specific padding has higher priority
+        final int padding = a.getDimensionPixelSize(R.styleable.PullListFragment_list_padding, -1);
+        builder.setListPadding(
+                a.getDimensionPixelSize(R.styleable.PullListFragment_list_paddingLeft, padding),
+                a.getDimensionPixelSize(R.styleable.PullListFragment_list_paddingTop, padding),
+                a.getDimensionPixelSize(R.styleable.PullListFragment_list_paddingRight, padding),
+                a.getDimensionPixelSize(R.styleable.PullListFragment_list_paddingBottom, padding));
+
+        builder.setPullEnabled(true,
+                a.getInt(R.styleable.PullListFragment_top_mode, MODE_PULL) == MODE_PULL);
+        builder.setPullEnabled(false,
+                a.getInt(R.styleable.PullListFragment_bottom_mode, MODE_PULL) == MODE_PULL);
+        builder.setPulledView(true, a.getResourceId(R.styleable.PullListFragment_top_view, -1));
+        builder.setPulledView(false, a.getResourceId(R.styleable.PullListFragment_bottom_view, -1));
+
+        parsePulledView(a, builder.top,
+                R.styleable.PullListFragment_top_pullStartedText,
+                R.styleable.PullListFragment_top_pullThresholdText,
+                R.styleable.PullListFragment_top_refreshingText,
+                R.styleable.PullListFragment_top_refreshSuccessText,
+                R.styleable.PullListFragment_top_refreshFailedText,
+                R.styleable.PullListFragment_top_backgroundColor,
+                R.styleable.PullListFragment_top_innerBackgroundColor,
+                R.styleable.PullListFragment_top_textSize,
+                R.styleable.PullListFragment_top_textColor);
+        parsePulledView(a, builder.bottom,
+                R.styleable.PullListFragment_bottom_pullStartedText,
+                R.styleable.PullListFragment_bottom_pullThresholdText,
+                R.styleable.PullListFragment_bottom_refreshingText,
+                R.styleable.PullListFragment_bottom_refreshSuccessText,
+                R.styleable.PullListFragment_bottom_refreshFailedText,
+                R.styleable.PullListFragment_bottom_backgroundColor,
+                R.styleable.PullListFragment_bottom_innerBackgroundColor,
+                R.styleable.PullListFragment_bottom_textSize,
+                R.styleable.PullListFragment_bottom_textColor);
+
+        final int emptyViewResId = a.getResourceId(R.styleable.PullListFragment_empty_view, -1);
+        if (emptyViewResId != -1) {
+            builder.setEmptyView(emptyViewResId);
+        } else {
+            builder.setEmptyText(a.getString(R.styleable.PullListFragment_empty_text));
+        }
+
+        if (a.hasValue(R.styleable.PullListFragment_pull_delay)) {
+            builder.setPullDelay(a.getInt(R.styleable.PullListFragment_pull_delay, 0));
+        }
+        if (a.hasValue(R.styleable.PullListFragment_pull_damping)) {
+            builder.setDamping(a.getFloat(R.styleable.PullListFragment_pull_damping, 0.0f));
+        }
+        if (a.hasValue(R.styleable.PullListFragment_release_easing)) {
+            builder.setEasing(a.getFloat(R.styleable.PullListFragment_release_easing, 0.0f));
+        }
+
+        return builder.build();
+    }
+
+    private static void parsePulledView(TypedArray a, PulledViewConfig view, int pullStartedText,
+                                        int pullThresholdText, int refreshingText,
+                                        int refreshSuccessText, int refreshFailedText,
+                                        int backgroundColor, int innerBackgroundColor,
+                                        int textSize, int textColor) {
+        view.texts[TEXT_PULL_STARTED] = a.getString(pullStartedText);
+        view.texts[TEXT_PULL_THRESHOLD] = a.getString(pullThresholdText);
+        view.texts[TEXT_REFRESHING] = a.getString(refreshingText);
+        view.texts[TEXT_REFRESH_SUCCESS] = a.getString(refreshSuccessText);
+        view.texts[TEXT_REFRESH_FAILED] = a.getString(refreshFailedText);
+
+        if (a.hasValue(backgroundColor)) {
+            view.backgroundColor = a.getColor(backgroundColor, 0);
+        }
+        if (a.hasValue(innerBackgroundColor)) {
+            view.innerBackgroundColor = a.getColor(innerBackgroundColor, 0);
+        }
+        if (a.hasValue(textColor)) {
+            view.textColor = a.getColor(textColor, 0);
+        }
+        view.textSize = a.getDimensionPixelSize(textSize, -1);
+    }
+
+    /**
+     * Applies the list related settings to the given ListView
+     *
+     * @param listView The list view of the fragment
+     */
+
+    void applyToList(ListView listView) {
+        if (listBackgroundColor != null) {
+            listView.setBackgroundColor(listBackgroundColor);
+            listView.setCacheColorHint(listBackgroundColor);
+        }
+
+        if (listPaddingLeft != -1 || listPaddingTop != -1 || listPaddingRight != -1 ||
+                listPaddingBottom != -1) {
+            listView.setPadding(
+                    listPaddingLeft != -1 ? listPaddingLeft : listView.getPaddingLeft(),
+                    listPaddingTop != -1 ? listPaddingTop : listView.getPaddingTop(),
+                    listPaddingRight != -1 ? listPaddingRight : listView.getPaddingRight(),
+                    listPaddingBottom != -1 ? listPaddingBottom : listView.getPaddingBottom());
+        }
+    }
+
+    /**
+     * Returns the configuration of a pulled view
+     *
+     * @param isTop If true, returns the configuration of the top pulled view
+     * @return The pulled view configuration
+     */
+
+    public PulledViewConfig getPulledViewConfig(boolean isTop) {
+        return isTop ? top : bottom;
+    }
+
+    public int getEmptyViewResId() {
+        return emptyViewResId;
+    }
+
+    public String getEmptyText() {
+        return emptyText;
+    }
+
+    public Integer getPullDelay() {
+        return pullDelay;
+    }
+
+    public Float getDamping() {
+        return damping;
+    }
+
+    public Float getEasing() {
+        return easing;
+    }
+
+    /**
+     * The configuration of the top or bottom pulled view
+     */
+
+    public static final class PulledViewConfig {
+
+        private boolean enabled;
+        private int viewResId;
+        private final String[] texts;
+        private Integer backgroundColor;
+        private Integer innerBackgroundColor;
+        private Integer textColor;
+        private float textSize;
+
+        private PulledViewConfig() {
+            enabled = true;
+            viewResId = -1;
+            texts = new String[TEXT_COUNT];
+            textSize = -1.0f;
+        }
+
+        private PulledViewConfig(PulledViewConfig other) {
+            enabled = other.enabled;
+            viewResId = other.viewResId;
+            texts = other.texts.clone();
+            backgroundColor = other.backgroundColor;
+            innerBackgroundColor = other.innerBackgroundColor;
+            textColor = other.textColor;
+            textSize = other.textSize;
+        }
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        /**
+         * Returns the layout resource replacing the default pulled view
+         *
+         * @return The layout resource ID, or -1 to use the default view
+         */
+
+        public int getViewResId() {
+            return viewResId;
+        }
+
+        /**
+         * Returns true if any setting applies to the default pulled view
+         *
+         * @return True if the default view has to be styled
+         */
+
+        public boolean hasDefaultViewStyle() {
+            for (String text : texts) {
+                if (text != null) {
+                    return true;
+                }
+            }
+
+            return backgroundColor != null || innerBackgroundColor != null || textColor != null ||
+                    textSize >= 0.0f;
+        }
+
+        /**
+         * Applies the texts, colors and text size to a default pulled view
+         *
+         * @param view The default pulled view
+         */
+
+        void applyTo(PullListFragment.DefaultPulledView view) {
+            if (texts[TEXT_PULL_STARTED] != null) {
+                view.setPullStartedText(texts[TEXT_PULL_STARTED]);
+            }
+            if (texts[TEXT_PULL_THRESHOLD] != null) {
+                view.setPullThresholdText(texts[TEXT_PULL_THRESHOLD]);
+            }
+            if (texts[TEXT_REFRESHING] != null) {
+                view.setRefreshingText(texts[TEXT_REFRESHING]);
+            }
+            if (texts[TEXT_REFRESH_SUCCESS] != null) {
+                view.setRefreshSuccessText(texts[TEXT_REFRESH_SUCCESS]);
+            }
+            if (texts[TEXT_REFRESH_FAILED] != null) {
+                view.setRefreshFailedText(texts[TEXT_REFRESH_FAILED]);
+            }
+            if (backgroundColor != null) {
+                view.setBackgroundColor(backgroundColor);
+            }
+            if (innerBackgroundColor != null) {
+                view.setInnerBackgroundColor(innerBackgroundColor);
+            }
+            if (textSize >= 0.0f) {
+                view.setTextSize(TypedValue.COMPLEX_UNIT_PX, textSize);
+            }
+            if (textColor != null) {
+                view.setTextColor(textColor);
+            }
+        }
+    }
+
+    /**
+     * Builds a PullConfig programmatically. Anything which is not set is left unchanged when the
+     * configuration is applied
+     */
+
+    public static class Builder {
+
+        private Integer listBackgroundColor;
+        private int listPaddingLeft = -1;
+        private int listPaddingTop = -1;
+        private int listPaddingRight = -1;
+        private int listPaddingBottom = -1;
+        private PulledViewConfig top = new PulledViewConfig();
+        private PulledViewConfig bottom = new PulledViewConfig();
+        private int emptyViewResId = -1;
+        private String emptyText;
+        private Integer pullDelay;
+        private Float damping;
+        private Float easing;
+
+        public Builder() {
+            // nothing is set by default
+        }
+
+        /**
+         * Creates a builder starting from an existing configuration
+         *
+         * @param config The configuration to copy
+         */
+
+        public Builder(PullConfig config) {
+            listBackgroundColor = config.listBackgroundColor;
+            listPaddingLeft = config.listPaddingLeft;
+            listPaddingTop = config.listPaddingTop;
+            listPaddingRight = config.listPaddingRight;
+            listPaddingBottom = config.listPaddingBottom;
+            top = new PulledViewConfig(config.top);
+            bottom = new PulledViewConfig(config.bottom);
+            emptyViewResId = config.emptyViewResId;
+            emptyText = config.emptyText;
+            pullDelay = config.pullDelay;
+            damping = config.damping;
+            easing = config.easing;
+        }
+
+        public Builder setListBackgroundColor(int color) {
+            listBackgroundColor = color;
+            return this;
+        }
+
+        /**
+         * Set the padding of the list view, in pixels. A value of -1 keeps the current padding
+         */
+
+        public Builder setListPadding(int left, int top, int right, int bottom) {
+            listPaddingLeft = left;
+            listPaddingTop = top;
+            listPaddingRight = right;
+            listPaddingBottom = bottom;
+            return this;
+        }
+
+        public Builder setPullEnabled(boolean isTop, boolean enabled) {
+            view(isTop).enabled = enabled;
+            return this;
+        }
+
+        /**
+         * Replaces the default pulled view with a layout resource, or -1 to keep the default view
+         */
+
+        public Builder setPulledView(boolean isTop, int resId) {
+            view(isTop).viewResId = resId;
+            return this;
+        }
+
+        public Builder setPullStartedText(boolean isTop, String text) {
+            view(isTop).texts[TEXT_PULL_STARTED] = text;
+            return this;
+        }
+
+        public Builder setPullThresholdText(boolean isTop, String text) {
+            view(isTop).texts[TEXT_PULL_THRESHOLD] = text;
+            return this;
+        }
+
+        public Builder setRefreshingText(boolean isTop, String text) {
+            view(isTop).texts[TEXT_REFRESHING] = text;
+            return this;
+        }
+
+        public Builder setRefreshSuccessText(boolean isTop, String text) {
+            view(isTop).texts[TEXT_REFRESH_SUCCESS] = text;
+            return this;
+        }
+
+        public Builder setRefreshFailedText(boolean isTop, String text) {
+            view(isTop).texts[TEXT_REFRESH_FAILED] = text;
+            return this;
+        }
+
+        public Builder setBackgroundColor(boolean isTop, int color) {
+            view(isTop).backgroundColor = color;
+            return this;
+        }
+
+        public Builder setInnerBackgroundColor(boolean isTop, int color) {
+            view(isTop).innerBackgroundColor = color;
+            return this;
+        }
+
+        public Builder setTextColor(boolean isTop, int color) {
+            view(isTop).textColor = color;
+            return this;
+        }
+
+        /**
+         * Set the text size of a default pulled view, in pixels
+         */
+
+        public Builder setTextSize(boolean isTop, float size) {
+            view(isTop).textSize = size;
+            return this;
+        }
+
+        public Builder setEmptyView(int resId) {
+            emptyViewResId = resId;
+            return this;
+        }
+
+        public Builder setEmptyText(String text) {
+            emptyText = text;
+            return this;
+        }
+
+        public Builder setPullDelay(int delay) {
+            pullDelay = delay;
+            return this;
+        }
+
+        public Builder setDamping(float damping) {
+            this.damping = damping;
+            return this;
+        }
+
+        public Builder setEasing(float easing) {
+            this.easing = easing;
+            return this;
+        }
+
+        public PullConfig build() {
+            return new PullConfig(this);
+        }
+
+        private PulledViewConfig view(boolean isTop) {
+            return isTop ? top : bottom;
+        }
+    }
+}
@@ -30,18 +30,23 @@ import android.content.Context;
 import android.content.res.TypedArray;
 import android.database.DataSetObserver;
 import android.graphics.Canvas;
+import android.graphics.Paint;
 import android.os.Bundle;
-import android.os.Handler;
+import android.os.SystemClock;
 import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentActivity;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
 import android.text.TextUtils;
 import android.util.AttributeSet;
-import android.util.Log;
 import android.util.TypedValue;
 import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.view.animation.AnimationUtils;
 import android.widget.AbsListView;
 import android.widget.AdapterView;
@@ -53,6 +58,23 @@ import android.widget.ProgressBar;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
 public class PullListFragment extends Fragment implements AbsListView.OnScrollListener {
 
     /** log identifier */
@@ -65,6 +87,14 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
     public static final int ID_BOTTOM_VIEW  = 4;
     public static final int ID_EMPTY_VIEW   = 5;
 
+    /** keys used to save the refresh history */
+    private static final String KEY_REFRESH_DECISION = "pullListFragment:key:refreshDecision";
+    private static final String KEY_TOP_REFRESH = "pullListFragment:key:topRefresh";
+    private static final String KEY_BOTTOM_REFRESH = "pullListFragment:key:bottomRefresh";
+
+    /** key used to save the unique part of the retention key */
+    private static final String KEY_RETENTION_ID = "pullListFragment:key:retentionId";
+
     /** different modes of operation */
     private static final int MODE_NONE = 0;
     private static final int MODE_PULL = 1;
@@ -88,6 +118,15 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
     private DefaultPulledView topManager;
     private DefaultPulledView bottomManager;
 
+    /** the pull state listeners of each side, copied on write so dispatch never allocates */
+    private static final PullStateListener[] NO_LISTENERS = new PullStateListener[0];
+    private PullStateListener[] topListeners = NO_LISTENERS;
+    private PullStateListener[] bottomListeners = NO_LISTENERS;
+
+    /** if true, the default view is created when it is first needed */
+    private boolean topDefaultPending;
+    private boolean bottomDefaultPending;
+
     /** the contained views */
     private View emptyView;
     private PullToRefreshLayout layout;
@@ -97,27 +136,82 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
 
     /** holds data which will persist through configuration changes */
     private RetainedFragment retainedFragment;
+    private RetainedSlot retainedSlot;
+
+    /** distinguishes untagged fragments in the same container, kept over configuration changes */
+    private String retentionId;
+
+    /** the total budget of the retained data, or -1 to keep the current budget */
+    private int retentionBudget = -1;
 
     /** if true, the list adapter will be retained over configuration changes */
     private boolean retainListAdapter = true;
 
-    /** a handler for posting Runnable */
-    private static final Handler handler = new Handler();
+    /** the refresh task in progress, retained along with the list adapter */
+    private RefreshTask refreshTask;
+
+    /** posts the Runnables of this fragment, all of them are cancelled with the view */
+    private final Scheduler scheduler = new Scheduler();
 
     /** handles scrolling behaviour */
     private PullEffectScroller scroller;
 
+    /** if true, frame callbacks are suspended because the fragment cannot be seen */
+    private boolean animationsSuspended = false;
+    private boolean started = false;
+    private boolean layoutShown = false;
+
     /** the accumulated offset for the views */
     private int accumulatedOffset = 0;
 
     /** if true, the list is visible */
     private boolean listShown = false;
 
-    /** XML attributes to parse */
-    private AttributeSet attrs;
+    /** the configuration applied when the views are created */
+    private PullConfig pullConfig = PullConfig.DEFAULT;
 
     /** The dataset observer to monitor changes in the adapter data */
-    private final DataSetObserver observer = new CustomDataSetObserver();
+    private final CustomDataSetObserver observer = new CustomDataSetObserver();
+
+    /** if true, the first visible item is kept in place when the adapter data changes */
+    private boolean scrollAnchoringEnabled = true;
+
+    /** the first visible item, captured whenever the list is scrolled or laid out */
+    private final ScrollAnchor scrollAnchor = new ScrollAnchor();
+
+    /** reports the pull distance before each frame in which it has changed */
+    private PullProgressListener pullProgressListener;
+    private final ProgressDispatcher progressDispatcher = new ProgressDispatcher(this);
+
+    /** frame statistics of the current pull, only recorded while a metrics listener is set */
+    private PullMetricsListener pullMetricsListener;
+    private final PullMetrics pullMetrics = new PullMetrics();
+
+    /** the time the first frame not yet drawn was requested, or 0 if none is pending */
+    private long frameRequestTime = 0L;
+
+    /** feeds large refresh results to the adapter over several frames */
+    private final ResultBatchApplier batchApplier = new ResultBatchApplier(this);
+
+    /** persists the adapter contents, so they can be shown immediately on the next launch */
+    private SnapshotCodec<?> snapshotCodec;
+    private File snapshotFile;
+
+    /** the snapshot load in progress, if any */
+    private SnapshotLoader<?> snapshotLoader;
+
+    /** if true, a snapshot is saved once the pending refresh results have been applied */
+    private boolean snapshotPending = false;
+
+    /** a single background thread shared by all snapshot reads and writes */
+    private static final Executor snapshotExecutor = Executors.newSingleThreadExecutor();
+
+    /** decides how each refresh request is served, null to always fetch in full */
+    private RefreshPolicy refreshPolicy;
+    private RefreshPolicy.Listener refreshPolicyListener;
+
+    /** the last successful refresh of each pulled view and the request in progress */
+    private final RefreshHistory refreshHistory = new RefreshHistory();
 
     /**
      * Called to do initial creation of a fragment
@@ -130,6 +224,12 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
         super.onCreate(savedInstanceState);
 
         scroller = new PullEffectScroller(this);
+        if (savedInstanceState != null) {
+            retentionId = savedInstanceState.getString(KEY_RETENTION_ID);
+        }
+        if (retentionId == null) {
+            retentionId = UUID.randomUUID().toString();
+        }
     }
 
     /**
@@ -160,14 +260,8 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
             }
         });
 
-        // setup the empty view
-        final TextView textView = new TextView(context);
-        textView.setLayoutParams(listViewParams);
-        textView.setGravity(Gravity.CENTER);
-        textView.setText("Nothing to show");
-        textView.setTextSize(TypedValue.COMPLEX_UNIT_SP, 18.0f);
-        emptyView = textView;
-        emptyView.setId(ID_EMPTY_VIEW);
+        // the empty view is created when it is first shown
+        emptyView = null;
 
         // setup top pulled view
         final RelativeLayout.LayoutParams topViewParams = new RelativeLayout.LayoutParams(
@@ -176,9 +270,6 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
         topViewParams.addRule(RelativeLayout.ALIGN_PARENT_LEFT, RelativeLayout.TRUE);
         final FrameLayout topFrameLayout = new FrameLayout(context);
         topFrameLayout.setLayoutParams(topViewParams);
-        // setup the default child of the FrameLayout
-        topManager = new DefaultPulledView(this, true);
-        topFrameLayout.addView(topManager);
         topPulledView = topFrameLayout;
         topPulledView.setId(ID_TOP_VIEW);
 
@@ -189,9 +280,6 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
         bottomViewParams.addRule(RelativeLayout.ALIGN_PARENT_LEFT, RelativeLayout.TRUE);
         final FrameLayout bottomFrameLayout = new FrameLayout(context);
         bottomFrameLayout.setLayoutParams(bottomViewParams);
-        // setup the default child in the FrameLayout
-        bottomManager = new DefaultPulledView(this, false);
-        bottomFrameLayout.addView(bottomManager);
         bottomPulledView = bottomFrameLayout;
         bottomPulledView.setId(ID_BOTTOM_VIEW);
 
@@ -199,214 +287,106 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
         layout.addView(topPulledView);
         layout.addView(bottomPulledView);
         layout.addView(listView);
-        layout.addView(emptyView);
         layout.setId(ID_LAYOUT);
+        if (pullProgressListener != null) {
+            progressDispatcher.attach(layout);
+        }
 
         listShown = false;
         listView.setVisibility(View.GONE);
-        emptyView.setVisibility(View.VISIBLE);
 
-        // applies the XML attributes, if exists
-        if (attrs != null) {
-            final TypedArray a = getActivity().obtainStyledAttributes(attrs, R.styleable.PullListFragment);
-            if (a != null) {
-                parseXmlAttributes(a);
-                a.recycle();
-            }
-            attrs = null;
+        // the default pulled views are skipped if a custom view or mode is set by the attributes
+        topDefaultPending = true;
+        bottomDefaultPending = true;
+
+        // applies the configuration in one pass, before the first layout
+        applyPullConfig(pullConfig);
+
+        if (scroller.topPullEnabled) {
+            getDefaultTopView();
+        }
+        if (scroller.bottomPullEnabled) {
+            getDefaultBottomView();
+        }
+
+        // starts reading early, the adapter is only replaced if none has been set by then
+        if (snapshotCodec != null) {
+            loadSnapshot(snapshotCodec);
         }
 
         return layout;
     }
 
     /**
-     * Applies the xml attributes sent through the Bundle object
+     * Applies a configuration to the views of the fragment. Settings which are not part of the
+     * configuration are left unchanged
      *
-     * @param a The TypedArray object containing the xml attributes
+     * @param config The configuration to apply
      */
 
-    private void parseXmlAttributes(final TypedArray a) {
-        if (a != null) {
-            /** apply the background color */
-            final int backgroundColor = a.getColor(R.styleable.PullListFragment_list_backgroundColor, 0);
-            if (backgroundColor != 0) {
-                setListViewBackgroundColor(backgroundColor);
-            }
-
-            /**
-             * Applies the padding, more specific padding has higher priority
-             */
-
-            int paddingTop = listView.getPaddingTop();
-            int paddingBottom = listView.getPaddingBottom();
-            int paddingLeft = listView.getPaddingLeft();
-            int paddingRight = listView.getPaddingRight();
-
-            final int padding = a.getDimensionPixelSize(R.styleable.PullListFragment_list_padding, -1);
-            if (padding != -1) {
-                paddingTop = padding;
-                paddingBottom = padding;
-                paddingLeft = padding;
-                paddingRight = padding;
-            }
-
-            paddingTop = a.getDimensionPixelSize(R.styleable.PullListFragment_list_paddingTop, paddingTop);
-            paddingBottom = a.getDimensionPixelSize(R.styleable.PullListFragment_list_paddingBottom, paddingBottom);
-            paddingLeft = a.getDimensionPixelSize(R.styleable.PullListFragment_list_paddingLeft, paddingLeft);
-            paddingRight = a.getDimensionPixelSize(R.styleable.PullListFragment_list_paddingRight, paddingRight);
-
-            listView.setPadding(paddingLeft, paddingTop, paddingRight, paddingBottom);
-
-            /**
-             * apply pull modes
-             */
-
-            final int topMode = a.getInt(R.styleable.PullListFragment_top_mode, MODE_PULL);
-            if (topMode != MODE_PULL) {
-                enableTopPull(false);
-            }
-
-            final int bottomMode = a.getInt(R.styleable.PullListFragment_bottom_mode, MODE_PULL);
-            if (bottomMode != MODE_PULL) {
-                enableBottomPull(false);
-            }
-
-            /**
-             * apply custom pulled views
-             */
-
-            final int topViewResId = a.getResourceId(R.styleable.PullListFragment_top_view, -1);
-            if (topViewResId != -1) {
-                setTopPulledView(topViewResId);
-            }
-
-            final int bottomViewResId = a.getResourceId(R.styleable.PullListFragment_bottom_view, -1);
-            if (bottomViewResId != -1) {
-                setBottomPulledView(bottomViewResId);
-            }
-
-            /**
-             * apply custom text to default views
-             */
-
-            if (topManager != null) {
-                final String pullStartedText = a.getString(R.styleable.PullListFragment_top_pullStartedText);
-                if (pullStartedText != null) {
-                    topManager.setPullStartedText(pullStartedText);
-                }
-
-                final String pullThresholdText = a.getString(R.styleable.PullListFragment_top_pullThresholdText);
-                if (pullThresholdText != null) {
-                    topManager.setPullThresholdText(pullThresholdText);
-                }
-
-                final String refreshingText = a.getString(R.styleable.PullListFragment_top_refreshingText);
-                if (refreshingText != null) {
-                    topManager.setRefreshingText(refreshingText);
-                }
-
-                final String refreshSuccessText = a.getString(R.styleable.PullListFragment_top_refreshSuccessText);
-                if (refreshSuccessText != null) {
-                    topManager.setRefreshSuccessText(refreshSuccessText);
-                }
-
-                final String refreshFailedText = a.getString(R.styleable.PullListFragment_top_refreshFailedText);
-                if (refreshFailedText != null) {
-                    topManager.setRefreshFailedText(refreshFailedText);
-                }
-
-                final int bgColor = a.getInt(R.styleable.PullListFragment_top_backgroundColor, -1);
-                if (bgColor != -1) {
-                    topManager.setBackgroundColor(bgColor);
-                }
-
-                final int innerBgColor = a.getInt(R.styleable.PullListFragment_top_innerBackgroundColor, -1);
-                if (innerBgColor != -1) {
-                    topManager.setInnerBackgroundColor(innerBgColor);
-                }
-
-                final int textSize = a.getDimensionPixelSize(R.styleable.PullListFragment_top_textSize, (int)topManager.getTextSize());
-                topManager.setTextSize(TypedValue.COMPLEX_UNIT_PX, textSize);
-
-                final int textColor = a.getInt(R.styleable.PullListFragment_top_textColor, topManager.getTextColor());
-                topManager.setTextColor(textColor);
-            }
-
-            if (bottomManager != null) {
-                final String pullStartedText = a.getString(R.styleable.PullListFragment_bottom_pullStartedText);
-                if (pullStartedText != null) {
-                    bottomManager.setPullStartedText(pullStartedText);
-                }
-
-                final String pullThresholdText = a.getString(R.styleable.PullListFragment_bottom_pullThresholdText);
-                if (pullThresholdText != null) {
-                    bottomManager.setPullThresholdText(pullThresholdText);
-                }
-
-                final String refreshingText = a.getString(R.styleable.PullListFragment_bottom_refreshingText);
-                if (refreshingText != null) {
-                    bottomManager.setRefreshingText(refreshingText);
-                }
-
-                final String refreshSuccessText = a.getString(R.styleable.PullListFragment_bottom_refreshSuccessText);
-                if (refreshSuccessText != null) {
-                    bottomManager.setRefreshSuccessText(refreshSuccessText);
-                }
+    private void applyPullConfig(PullConfig config) {
+        config.applyToList(listView);
 
-                final String refreshFailedText = a.getString(R.styleable.PullListFragment_bottom_refreshFailedText);
-                if (refreshFailedText != null) {
-                    bottomManager.setRefreshFailedText(refreshFailedText);
-                }
-
-                final int bgColor = a.getInt(R.styleable.PullListFragment_bottom_backgroundColor, -1);
-                if (bgColor != -1) {
-                    bottomManager.setBackgroundColor(bgColor);
-                }
-
-                final int innerBgColor = a.getInt(R.styleable.PullListFragment_bottom_innerBackgroundColor, -1);
-                if (innerBgColor != -1) {
-                    bottomManager.setInnerBackgroundColor(innerBgColor);
-                }
-
-                final float textSize = a.getDimensionPixelSize(R.styleable.PullListFragment_bottom_textSize, (int)bottomManager.getTextSize());
-                bottomManager.setTextSize(TypedValue.COMPLEX_UNIT_PX, textSize);
-
-                final int textColor = a.getInt(R.styleable.PullListFragment_bottom_textSize, bottomManager.getTextColor());
-                bottomManager.setTextColor(textColor);
-            }
+        final PullConfig.PulledViewConfig top = config.getPulledViewConfig(true);
+        if (!top.isEnabled()) {
+            enableTopPull(false);
+        }
+        if (top.getViewResId() != -1) {
+            setTopPulledView(top.getViewResId());
+        } else if (top.hasDefaultViewStyle()) {
+            top.applyTo(getDefaultTopView());
+        }
 
-            /**
-             * Apply custom empty view configurations
-             */
+        final PullConfig.PulledViewConfig bottom = config.getPulledViewConfig(false);
+        if (!bottom.isEnabled()) {
+            enableBottomPull(false);
+        }
+        if (bottom.getViewResId() != -1) {
+            setBottomPulledView(bottom.getViewResId());
+        } else if (bottom.hasDefaultViewStyle()) {
+            bottom.applyTo(getDefaultBottomView());
+        }
 
-            final int emptyViewId = a.getResourceId(R.styleable.PullListFragment_empty_view, -1);
-            if (emptyViewId != -1) {
-                setEmptyView(emptyViewId);
-            } else {
-                final String emptyText = a.getString(R.styleable.PullListFragment_empty_text);
-                if (emptyText != null) {
-                    setEmptyText(emptyText);
-                }
-            }
+        if (config.getEmptyViewResId() != -1) {
+            setEmptyView(config.getEmptyViewResId());
+        } else if (config.getEmptyText() != null) {
+            setEmptyText(config.getEmptyText());
+        }
 
-            /**
-             * Apply custom behaviour to scroller
-             */
+        if (config.getPullDelay() != null) {
+            scroller.setOnRequestCompleteDelay(config.getPullDelay());
+        }
+        if (config.getDamping() != null) {
+            scroller.setDamping(config.getDamping());
+        }
+        if (config.getEasing() != null) {
+            scroller.setEasing(config.getEasing());
+        }
+    }
 
-            final int delay = a.getInt(R.styleable.PullListFragment_pull_delay,
-                    scroller.getOnRequestCompleteDelay());
-            scroller.setOnRequestCompleteDelay(delay);
+    /**
+     * Set the configuration of the fragment, replacing the one parsed from the XML attributes.
+     * The same configuration can be shared by any number of fragments. If the views have already
+     * been created, the configuration is applied immediately
+     *
+     * @param config The new configuration
+     */
 
-            final float damping = a.getFloat(R.styleable.PullListFragment_pull_damping,
-                    scroller.getDamping());
-            scroller.setDamping(damping);
+    public void setPullConfig(PullConfig config) {
+        pullConfig = config != null ? config : PullConfig.DEFAULT;
+        if (layout != null) {
+            applyPullConfig(pullConfig);
+        }
+    }
 
-            final float easing = a.getFloat(R.styleable.PullListFragment_release_easing,
-                    scroller.getEasing());
-            scroller.setEasing(easing);
+    /**
+     * Returns the configuration of the fragment
+     *
+     * @return The configuration applied when the views are created
+     */
 
-            a.recycle();
-        }
+    public PullConfig getPullConfig() {
+        return pullConfig;
     }
 
     /**
@@ -422,8 +402,8 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
     public void onInflate(Activity activity, AttributeSet attrs, Bundle savedInstanceState) {
         super.onInflate(activity, attrs, savedInstanceState);
 
-        // save the AttributeSet to parse later
-        this.attrs = attrs;
+        // fragments with the same attributes share the parsed configuration
+        pullConfig = PullConfig.fromAttributes(activity, attrs);
     }
 
     /**
@@ -454,24 +434,42 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
         if (retainListAdapter) {
-            retainedFragment = (RetainedFragment)getActivity()
-                    .getSupportFragmentManager().findFragmentByTag(RetainedFragment.TAG);
+            attachRetainedSlot();
 
-            if (retainedFragment == null) {
-                retainedFragment = new RetainedFragment();
+            if (retainedSlot.adapter != null) {
+                setListAdapter(retainedSlot.adapter);
+            } else if (listView.getAdapter() != null) {
+                retainedSlot.adapter = listView.getAdapter();
+            }
 
-                getActivity().getSupportFragmentManager().beginTransaction().add(retainedFragment,
-                        RetainedFragment.TAG).commit();
-            } else if (retainedFragment.getAdapter() != null) {
-                setListAdapter(retainedFragment.getAdapter());
+            // reattaches to the refresh started by the previous instance
+            if (retainedSlot.refreshTask != null) {
+                refreshTask = retainedSlot.refreshTask;
+                refreshTask.fragment = this;
             }
         }
 
         super.onActivityCreated(savedInstanceState);
 
         if (savedInstanceState != null) {
+            refreshHistory.setDecision(RefreshPolicy.Decision.values()[savedInstanceState.getInt(
+                    KEY_REFRESH_DECISION, RefreshPolicy.Decision.FULL.ordinal())]);
+            restoreRefreshRecord(savedInstanceState, KEY_TOP_REFRESH,
+                    refreshHistory.getRecord(true));
+            restoreRefreshRecord(savedInstanceState, KEY_BOTTOM_REFRESH,
+                    refreshHistory.getRecord(false));
             scroller.restoreSavedInstanceState(savedInstanceState);
         }
+
+        // the task may have completed while no fragment was attached
+        if (refreshTask != null && refreshTask.isComplete()) {
+            deliverRefreshTask(refreshTask);
+        }
+
+        // nothing has been set to show by now
+        if (!listShown) {
+            ensureEmptyView();
+        }
     }
 
     /**
@@ -486,6 +484,12 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
         super.onSaveInstanceState(outState);
 
         scroller.onSaveInstanceState(outState);
+        if (outState != null) {
+            outState.putString(KEY_RETENTION_ID, retentionId);
+            outState.putInt(KEY_REFRESH_DECISION, refreshHistory.getDecision().ordinal());
+            saveRefreshRecord(outState, KEY_TOP_REFRESH, refreshHistory.getRecord(true));
+            saveRefreshRecord(outState, KEY_BOTTOM_REFRESH, refreshHistory.getRecord(false));
+        }
     }
 
     /**
@@ -496,9 +500,34 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
 
     @Override
     public void onDestroyView() {
+        // the adapter outlives the view, so it must not be left half applied
+        batchApplier.flush();
+        if (listView.getAdapter() != null) {
+            listView.getAdapter().unregisterDataSetObserver(observer);
+        }
+        observer.cancel();
+        if (snapshotLoader != null) {
+            snapshotLoader.cancel();
+            snapshotLoader = null;
+        }
+
+        // pending callbacks must not outlive the view, the animations resume with the next view
+        scroller.suspend();
+        batchApplier.suspend();
+        animationsSuspended = true;
+        scheduler.cancelAll();
+
+        progressDispatcher.detach();
+
         super.onDestroyView();
-        bottomManager = null;
-        topManager = null;
+        if (bottomManager != null) {
+            removeBottomListener(bottomManager);
+            bottomManager = null;
+        }
+        if (topManager != null) {
+            removeTopListener(topManager);
+            topManager = null;
+        }
         listView = null;
         layout = null;
         topPulledView = null;
@@ -513,8 +542,127 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
     public void onDestroy() {
         super.onDestroy();
 
+        if (refreshTask != null) {
+            refreshTask.fragment = null;
+            if (retainedSlot == null || isRemoving()) {
+                // nothing can pick up the result
+                refreshTask.cancel();
+            }
+            refreshTask = null;
+        }
+        if (retainedSlot != null) {
+            if (isRemoving()) {
+                // the fragment is gone for good, so is its retained data
+                retainedFragment.release(retainedSlot);
+            } else {
+                retainedFragment.detach(retainedSlot);
+            }
+            retainedSlot = null;
+            retainedFragment = null;
+        }
         scroller.stop();
         scroller = null;
+        scheduler.assertIdle();
+    }
+
+    @Override
+    public void onStart() {
+        super.onStart();
+
+        started = true;
+        updateAnimationsSuspended();
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+
+        started = false;
+        updateAnimationsSuspended();
+    }
+
+    @Override
+    public void onHiddenChanged(boolean hidden) {
+        super.onHiddenChanged(hidden);
+
+        updateAnimationsSuspended();
+    }
+
+    /**
+     * Called by a ViewPager when this fragment's page is shown or hidden. Offscreen pages have
+     * their animations suspended
+     *
+     * @param isVisibleToUser If true, the page is visible to the user
+     */
+
+    @Override
+    public void setUserVisibleHint(boolean isVisibleToUser) {
+        super.setUserVisibleHint(isVisibleToUser);
+
+        updateAnimationsSuspended();
+    }
+
+    /**
+     * Returns true if the frame callbacks of the fragment are suspended, because the fragment is
+     * stopped, hidden, offscreen or its window is not visible
+     *
+     * @return True if the animations are suspended
+     */
+
+    public boolean areAnimationsSuspended() {
+        return animationsSuspended;
+    }
+
+    /**
+     * Suspends or resumes every frame callback of the fragment and its pulled views, whenever the
+     * visibility of the fragment changes. Suspended animations resume where they left off
+     */
+
+    private void updateAnimationsSuspended() {
+        if (scroller == null || layout == null) {
+            return;
+        }
+
+        final boolean suspend = !started || isHidden() || !getUserVisibleHint() || !layoutShown;
+        if (suspend == animationsSuspended) {
+            return;
+        }
+
+        animationsSuspended = suspend;
+        if (suspend) {
+            scroller.suspend();
+            batchApplier.suspend();
+        } else {
+            scroller.resume();
+            batchApplier.resume();
+        }
+        dispatchAnimationsSuspended(topPulledView, suspend);
+        dispatchAnimationsSuspended(bottomPulledView, suspend);
+    }
+
+    private static void dispatchAnimationsSuspended(ViewGroup container, boolean suspend) {
+        for (int i = 0; i < container.getChildCount(); i++) {
+            final View child = container.getChildAt(i);
+            if (child instanceof Suspendable) {
+                if (suspend) {
+                    ((Suspendable)child).suspendAnimations();
+                } else {
+                    ((Suspendable)child).resumeAnimations();
+                }
+            }
+        }
+    }
+
+    /**
+     * Called by the layout when it is attached to or detached from its window, or when the
+     * window visibility changes
+     *
+     * @param shown If true, the layout is attached to a visible window
+     */
+
+    private void onLayoutShownChanged(boolean shown) {
+        layoutShown = shown;
+        updateAnimationsSuspended();
     }
 
     /**
@@ -524,12 +672,69 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
      */
 
     private void setPullOffset(int offset) {
+        if (pullMetricsListener != null && offset != 0) {
+            requestFrame(System.nanoTime());
+        }
         accumulatedOffset += offset;
         if (layout != null) {
             layout.postInvalidate();
         }
     }
 
+    /**
+     * Marks a frame as needed, because the pull offset is about to change. Only the earliest
+     * request before each frame is kept
+     *
+     * @param requestTime The time the frame was first needed, in nanoseconds
+     */
+
+    private void requestFrame(long requestTime) {
+        if (pullMetricsListener != null &&
+                (frameRequestTime == 0L || requestTime < frameRequestTime)) {
+            frameRequestTime = requestTime;
+        }
+    }
+
+    /**
+     * Called by the layout after each frame, records the frame time if the frame shows a
+     * requested change of the pull offset. Redraws nobody asked for, e.g. of the status view, and
+     * idle time between the requests are never timed
+     */
+
+    private void onFrameDrawn() {
+        if (frameRequestTime == 0L) {
+            return;
+        }
+
+        if (pullMetricsListener != null && scroller.pullState != PullState.NORMAL) {
+            pullMetrics.recordFrame(System.nanoTime(), frameRequestTime);
+        }
+        frameRequestTime = 0L;
+    }
+
+    /**
+     * Called by the scroller whenever it leaves the normal state, the metrics of the previous
+     * pull are discarded
+     */
+
+    private void startPullMetrics() {
+        pullMetrics.reset();
+        frameRequestTime = 0L;
+    }
+
+    /**
+     * Called by the scroller when a pull ends, delivers the metrics of the pull
+     *
+     * @param isTop If true, the top view was pulled
+     */
+
+    private void deliverPullMetrics(boolean isTop) {
+        if (pullMetricsListener != null && pullMetrics.getFrameCount() > 0) {
+            pullMetrics.finish(isTop);
+            pullMetricsListener.onPullMetrics(pullMetrics);
+        }
+    }
+
     /**
      * Reverses the pull offset and reverts the layout to its normal appearance
      */
@@ -613,14 +818,42 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
         if (listView.getAdapter() != null) {
             listView.getAdapter().unregisterDataSetObserver(observer);
         }
-        if (retainedFragment != null) {
-            retainedFragment.setAdapter(adapter);
+        if (retainedSlot != null) {
+            retainedSlot.adapter = adapter;
+            retainedFragment.trimToBudget();
         }
+        scrollAnchor.clear();
         listView.setAdapter(adapter);
         adapter.registerDataSetObserver(observer);
         setListShown(true);
     }
 
+    /**
+     * Returns true if the scroll position is anchored when the adapter data changes
+     *
+     * @return True if scroll anchoring is enabled
+     */
+
+    public boolean isScrollAnchoringEnabled() {
+        return scrollAnchoringEnabled;
+    }
+
+    /**
+     * Set whether the first visible item should keep its position on screen when the adapter data
+     * changes, e.g. when a top refresh inserts items above the viewport. The position is restored
+     * within the same layout pass, so there is no need to call setSelection after applying the
+     * refresh results. Anchoring requires an adapter with stable IDs. Default value is true.
+     *
+     * @param enabled If true, the scroll position will be anchored to the first visible item
+     */
+
+    public void setScrollAnchoringEnabled(boolean enabled) {
+        scrollAnchoringEnabled = enabled;
+        if (!enabled) {
+            scrollAnchor.clear();
+        }
+    }
+
     /**
      * Returns true if the list adapter is retained
      *
@@ -641,67 +874,164 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
      */
 
     public void setRetainListAdapter(boolean retainListAdapter) {
-        if (retainListAdapter && !this.retainListAdapter) {
-            retainedFragment = new RetainedFragment();
-
-            retainedFragment.setAdapter(listView.getAdapter());
-            getActivity().getSupportFragmentManager().beginTransaction().add(retainedFragment,
-                    RetainedFragment.TAG).commit();
-        } else if (!retainListAdapter && retainedFragment != null) {
-            getActivity().getSupportFragmentManager().beginTransaction().remove(retainedFragment).commit();
+        if (retainListAdapter && !this.retainListAdapter && getActivity() != null) {
+            attachRetainedSlot();
+
+            retainedSlot.adapter = listView.getAdapter();
+            retainedSlot.refreshTask = refreshTask;
+            retainedFragment.trimToBudget();
+        } else if (!retainListAdapter && retainedSlot != null) {
+            // the task stays with this fragment, so it is not cancelled with the slot
+            retainedSlot.refreshTask = null;
+            retainedFragment.release(retainedSlot);
+            retainedSlot = null;
             retainedFragment = null;
         }
         this.retainListAdapter = retainListAdapter;
     }
 
     /**
-     * Set the text of the default view shown when the list is empty
+     * Returns the key of the data retained by this fragment. Every fragment in an activity retaining
+     * data must have a distinct key. Default implementation uses the fragment tag, or the
+     * container ID along with an identifier saved in the instance state if there is no tag, since
+     * several untagged fragments may share a container
      *
-     * @param resourceId The resource ID of the text
+     * @return The retention key
      */
 
-    public void setEmptyText(int resourceId) {
-        setEmptyText(getActivity().getString(resourceId));
+    protected String getRetentionKey() {
+        final String tag = getTag();
+        return tag != null ? "tag:" + tag : "id:" + getId() + ":" + retentionId;
     }
 
     /**
-     * Set the text of the default view shown when the list is empty
+     * Retains an object along with the list adapter, e.g. a cache derived from the adapter data.
+     * Retained objects count towards the retention budget, and are dropped first when memory is
+     * low. Can only be used while the list adapter is retained, after onActivityCreated
      *
-     * @param text The text to show
+     * @param name The name of the object, unique within this fragment
+     * @param value The object to retain, or null to drop the object
+     * @param bytes The approximate size of the object
      */
 
-    public void setEmptyText(CharSequence text) {
-        if (emptyView instanceof TextView) {
-            ((TextView)emptyView).setText(text);
+    public void retain(String name, Object value, int bytes) {
+        if (retainedSlot == null) {
+            throw new IllegalStateException("Data can only be retained while the list adapter " +
+                    "is retained, after onActivityCreated");
+        }
+
+        if (value == null) {
+            retainedSlot.extras.remove(name);
         } else {
-            throw new IllegalStateException("Cannot set text when a custom view is in use");
+            retainedSlot.extras.put(name, new RetainedValue(value, bytes));
+            retainedFragment.trimToBudget();
         }
     }
 
     /**
-     * Set the empty view to the view defined by the given resource ID
+     * Returns an object previously retained with retain
      *
-     * @param resourceId The resource ID of the view
+     * @param name The name of the object
+     * @return The retained object, or null if it was never retained or has been dropped
      */
 
-    public void setEmptyView(int resourceId) {
-        layout.removeView(emptyView);
-        LayoutInflater.from(getActivity()).inflate(resourceId, layout);
-        // assume the view is the last child
-        emptyView = layout.getChildAt(layout.getChildCount() - 1);
+    public Object getRetained(String name) {
+        if (retainedSlot == null) {
+            return null;
+        }
+
+        final RetainedValue retained = retainedSlot.extras.get(name);
+        return retained != null ? retained.value : null;
     }
 
     /**
-     * Set the empty view to the given view
+     * Set the total size of the data retained by all fragments in the activity. When the budget is
+     * exceeded, the data of fragments which are not shown is dropped in least recently used order,
+     * then the objects retained by shown fragments. Only adapters implementing RetainedData count
+     * towards the budget
      *
-     * @param view The new view shown when the list is empty
+     * @param bytes The retention budget
      */
 
-    public void setEmptyView(View view) {
-        layout.removeView(emptyView);
-        emptyView = view;
-        layout.addView(view);
-    }
+    public void setRetentionBudget(int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("The retention budget cannot be negative");
+        }
+
+        retentionBudget = bytes;
+        if (retainedFragment != null) {
+            retainedFragment.setBudget(bytes);
+        }
+    }
+
+    /**
+     * Finds or creates the retained fragment of the activity, and attaches the slot of this
+     * fragment
+     */
+
+    private void attachRetainedSlot() {
+        retainedFragment = RetainedFragment.obtain(getActivity());
+        if (retentionBudget >= 0) {
+            retainedFragment.setBudget(retentionBudget);
+        }
+        retainedSlot = retainedFragment.attach(getRetentionKey());
+    }
+
+    /**
+     * Set the text of the default view shown when the list is empty
+     *
+     * @param resourceId The resource ID of the text
+     */
+
+    public void setEmptyText(int resourceId) {
+        setEmptyText(getActivity().getString(resourceId));
+    }
+
+    /**
+     * Set the text of the default view shown when the list is empty
+     *
+     * @param text The text to show
+     */
+
+    public void setEmptyText(CharSequence text) {
+        ensureEmptyView();
+        if (emptyView instanceof TextView) {
+            ((TextView)emptyView).setText(text);
+        } else {
+            throw new IllegalStateException("Cannot set text when a custom view is in use");
+        }
+    }
+
+    /**
+     * Set the empty view to the view defined by the given resource ID
+     *
+     * @param resourceId The resource ID of the view
+     */
+
+    public void setEmptyView(int resourceId) {
+        if (emptyView != null) {
+            layout.removeView(emptyView);
+        }
+        LayoutInflater.from(getActivity()).inflate(resourceId, layout);
+        // assume the view is the last child
+        emptyView = layout.getChildAt(layout.getChildCount() - 1);
+        emptyView.setVisibility(listShown ? View.GONE : View.VISIBLE);
+    }
+
+    /**
+     * Set the empty view to the given view
+     *
+     * @param view The new view shown when the list is empty
+     */
+
+    public void setEmptyView(View view) {
+        if (emptyView != null) {
+            layout.removeView(emptyView);
+        }
+        emptyView = view;
+        layout.addView(view);
+        emptyView.setVisibility(listShown ? View.GONE : View.VISIBLE);
+    }
 
     /**
      * Returns the view shown when the list is empty
@@ -710,9 +1040,35 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
      */
 
     public View getEmptyView() {
+        ensureEmptyView();
         return emptyView;
     }
 
+    /**
+     * Creates the default empty view, if no empty view exists yet
+     */
+
+    private void ensureEmptyView() {
+        if (emptyView != null) {
+            return;
+        }
+
+        final RelativeLayout.LayoutParams params = new RelativeLayout.LayoutParams(
+                RelativeLayout.LayoutParams.MATCH_PARENT, RelativeLayout.LayoutParams.MATCH_PARENT);
+        params.addRule(RelativeLayout.ALIGN_PARENT_TOP, RelativeLayout.TRUE);
+        params.addRule(RelativeLayout.ALIGN_PARENT_LEFT, RelativeLayout.TRUE);
+
+        final TextView textView = new TextView(getActivity());
+        textView.setLayoutParams(params);
+        textView.setGravity(Gravity.CENTER);
+        textView.setText("Nothing to show");
+        textView.setTextSize(TypedValue.COMPLEX_UNIT_SP, 18.0f);
+        textView.setId(ID_EMPTY_VIEW);
+        textView.setVisibility(listShown ? View.GONE : View.VISIBLE);
+        emptyView = textView;
+        layout.addView(emptyView);
+    }
+
     /**
      * Set the list to be shown
      *
@@ -736,6 +1092,18 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
         }
         listShown = shown;
         if (shown) {
+            // an empty view which was never shown does not have to be created
+            if (emptyView == null) {
+                if (animate) {
+                    listView.startAnimation(AnimationUtils.loadAnimation(getActivity(),
+                            android.R.anim.fade_in));
+                } else {
+                    listView.clearAnimation();
+                }
+                listView.setVisibility(View.VISIBLE);
+                return;
+            }
+
             if (animate) {
                 listView.startAnimation(AnimationUtils.loadAnimation(getActivity(),
                         android.R.anim.fade_in));
@@ -748,6 +1116,7 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
             emptyView.setVisibility(View.GONE);
             listView.setVisibility(View.VISIBLE);
         } else {
+            ensureEmptyView();
             if (animate) {
                 listView.startAnimation(AnimationUtils.loadAnimation(getActivity(),
                         android.R.anim.fade_out));
@@ -767,6 +1136,9 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
 
     public void enableTopPull(boolean enable) {
         scroller.enableTopPull(enable);
+        if (enable && topPulledView != null) {
+            getDefaultTopView();
+        }
     }
 
     /**
@@ -777,6 +1149,9 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
 
     public void enableBottomPull(boolean enable) {
         scroller.enableBottomPull(enable);
+        if (enable && bottomPulledView != null) {
+            getDefaultBottomView();
+        }
     }
 
     /**
@@ -821,19 +1196,28 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
      */
 
     private void clearTopPulledView() {
+        topDefaultPending = false;
         if (topManager != null) {
+            removeTopListener(topManager);
             topManager = null;
         }
         topPulledView.removeAllViews();
     }
 
     /**
-     * Returns the default top view
+     * Returns the default top view, creating it if it has not been needed yet
      *
      * @return The default top view, null if a custom view is in use
      */
 
     public DefaultPulledView getDefaultTopView() {
+        if (topDefaultPending && topPulledView != null) {
+            topDefaultPending = false;
+            topManager = new DefaultPulledView(this, true);
+            topPulledView.addView(topManager);
+            topListeners = with(topListeners, topManager, 0);
+        }
+
         return topManager;
     }
 
@@ -855,7 +1239,7 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
 
     public void setBottomPulledView(int resId) {
         clearBottomPulledView();
-        LayoutInflater.from(getActivity()).inflate(resId, topPulledView);
+        LayoutInflater.from(getActivity()).inflate(resId, bottomPulledView);
     }
 
     /**
@@ -879,65 +1263,76 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
      */
 
     private void clearBottomPulledView() {
+        bottomDefaultPending = false;
         if (bottomManager != null) {
+            removeBottomListener(bottomManager);
             bottomManager = null;
         }
         bottomPulledView.removeAllViews();
     }
 
     /**
-     * Returns the default bottom view
+     * Returns the default bottom view, creating it if it has not been needed yet
      *
      * @return The default bottom view, null if a custom view is in use
      */
 
     public DefaultPulledView getDefaultBottomView() {
+        if (bottomDefaultPending && bottomPulledView != null) {
+            bottomDefaultPending = false;
+            bottomManager = new DefaultPulledView(this, false);
+            bottomPulledView.addView(bottomManager);
+            bottomListeners = with(bottomListeners, bottomManager, 0);
+        }
+
         return bottomManager;
     }
 
     /**
      * Called when the pull action begins.
      *
-     * Default behaviour updates the default views if they are in use
+     * Default behaviour notifies the pull state listeners of the pulled side, including the
+     * default view if it is in use
      *
      * @param previousState The previous pull state
      * @param isTop If true, the top view is begin pulled
      */
 
     protected void onPullStarted(PullState previousState, boolean isTop) {
-        if (isTop) {
-            if (topManager != null) topManager.onPullStarted();
-        } else if (bottomManager != null) {
-            bottomManager.onPullStarted();
+        final PullStateListener[] listeners = isTop ? topListeners : bottomListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onPullStarted();
         }
 
-        Log.d(TAG, "[onPullStarted]");
+        Diagnostics.event(Diagnostics.EVENT_PULL_STARTED, isTop ? 1 : 0);
     }
 
     /**
      * Called when the pull threshold has been exceeded.
      *
-     * Default behaviour updates the default views if they are in use
+     * Default behaviour notifies the pull state listeners of the pulled side, including the
+     * default view if it is in use
      *
      * @param previousState The previous pull state
      * @param isTop If true, the top view is begin pulled
      */
 
     protected void onPullThreshold(PullState previousState, boolean isTop) {
-        if (isTop) {
-            if (topManager != null) topManager.onPullThreshold(previousState == PullState.PULL_TOP);
-        } else if (bottomManager != null) {
-            bottomManager.onPullThreshold(previousState == PullState.PULL_BOTTOM);
+        final boolean aboveThreshold = previousState == (isTop ? PullState.PULL_TOP : PullState.PULL_BOTTOM);
+        final PullStateListener[] listeners = isTop ? topListeners : bottomListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onPullThreshold(aboveThreshold);
         }
 
-        Log.d(TAG, "[onPullThreshold]");
+        Diagnostics.event(Diagnostics.EVENT_PULL_THRESHOLD, isTop ? 1 : 0);
     }
 
     /**
      * Called when a request to refresh has been sent. Implementations must override this method and
      * call the onRequestComplete method of the listener provided to correctly update the views
      *
-     * Default behaviour updates the default views if they are in use
+     * Default behaviour notifies the pull state listeners of the pulled side, including the
+     * default view if it is in use
      *
      * @param previousState The previous pull state
      * @param isTop If true, the top view is begin pulled
@@ -945,13 +1340,12 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
      */
 
     protected void onRefreshRequest(PullState previousState, boolean isTop, boolean fromRestoredState) {
-        if (isTop) {
-            if (topManager != null) topManager.onRefreshRequest();
-        } else if (bottomManager != null) {
-            bottomManager.onRefreshRequest();
+        final PullStateListener[] listeners = isTop ? topListeners : bottomListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onRefreshRequest();
         }
 
-        Log.d(TAG, "[onRefreshRequest]");
+        Diagnostics.event(Diagnostics.EVENT_REFRESH_REQUEST, isTop ? 1 : 0);
     }
 
     /**
@@ -961,250 +1355,1763 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
      */
 
     public final void requestComplete(boolean success) {
+        recordRefresh(success, false);
         scroller.onRequestComplete(success);
+        if (success) {
+            requestSnapshot();
+        }
     }
 
     /**
-     * Called when the refresh request has been completed
-     *
-     * Default behaviour updates the default views if they are in use
+     * Call this method when a conditional refresh request has been answered with "not modified".
+     * The refresh is completed successfully and the data is considered fresh again
+     */
+
+    public final void requestNotModified() {
+        recordRefresh(true, true);
+        scroller.onRequestComplete(true);
+    }
+
+    /**
+     * Call this method when the request has been completed with a large result. The first
+     * screenful of items is applied immediately, and the rest is fed to the adapter in per-frame
+     * batches limited by the batch budget, to avoid stalling the UI thread
      *
      * @param success If true, the refresh request was completed successfully
-     * @param isTop If true, the top view is begin pulled
+     * @param batcher Applies the refresh results to the adapter
      */
 
-    protected void onRequestComplete(boolean success, boolean isTop) {
-        if (isTop) {
-            if (topManager != null) topManager.onRequestComplete(success);
-        } else if (bottomManager != null) {
-            bottomManager.onRequestComplete(success);
+    public final void requestComplete(boolean success, ResultBatcher batcher) {
+        if (batcher != null) {
+            if (listView != null) {
+                batchApplier.start(batcher, Math.max(listView.getChildCount(),
+                        ResultBatchApplier.MIN_BATCH_SIZE));
+            } else {
+                // nothing is drawn while the view is destroyed, the results are applied at once
+                batchApplier.flush();
+                final int remaining = batcher.getRemainingCount();
+                if (remaining > 0) {
+                    batcher.applyBatch(remaining);
+                }
+            }
+        }
+        recordRefresh(success, false);
+        scroller.onRequestComplete(success);
+        if (success) {
+            requestSnapshot();
+        }
+    }
+
+    /**
+     * Starts a refresh task on behalf of the refresh request in progress, typically called from
+     * onRefreshRequest. The task is retained along with the list adapter, so a configuration change
+     * while it is running reattaches the new fragment instance to the same task, instead of
+     * issuing the request again. The task completes the request when its result is delivered
+     *
+     * @param task The task to start, replaces and cancels any task in progress
+     */
+
+    public final void startRefreshTask(RefreshTask task) {
+        if (task.fragment != null || task.started) {
+            throw new IllegalStateException("A refresh task can only be started once");
+        }
+
+        if (refreshTask != null) {
+            refreshTask.fragment = null;
+            refreshTask.cancel();
         }
 
-        Log.d(TAG, "[onRequestComplete]");
+        refreshTask = task;
+        if (retainedSlot != null) {
+            retainedSlot.refreshTask = task;
+        }
+        task.fragment = this;
+        task.started = true;
+        task.onStart();
     }
 
     /**
-     * Called when the pull action has ended
+     * Returns the refresh task in progress. When called from onRefreshRequest with a restored
+     * state, a non-null task means the request is still being served and need not be issued again
+     *
+     * @return The refresh task in progress, or null if there is none
+     */
+
+    public RefreshTask getRefreshTask() {
+        return refreshTask;
+    }
+
+    /**
+     * Hands the result of a completed task to the task itself, to be applied to this fragment
+     *
+     * @param task The completed task
+     */
+
+    private void deliverRefreshTask(RefreshTask task) {
+        task.fragment = null;
+        if (refreshTask == task) {
+            refreshTask = null;
+            if (retainedSlot != null) {
+                retainedSlot.refreshTask = null;
+            }
+        }
+
+        if (scroller == null || !scroller.isWaiting()) {
+            Diagnostics.event(Diagnostics.EVENT_RESULT_DROPPED, task.isCancelled() ? 1 : 0);
+            return;
+        }
+
+        task.onDeliver(this, task.success, task.notModified);
+    }
+
+    /**
+     * Set the policy deciding whether a refresh request is skipped, sent as a conditional request
+     * or fetched in full. Without a policy every request is fetched in full
+     *
+     * @param policy The refresh policy, may be null
+     */
+
+    public void setRefreshPolicy(RefreshPolicy policy) {
+        refreshPolicy = policy;
+    }
+
+    public RefreshPolicy getRefreshPolicy() {
+        return refreshPolicy;
+    }
+
+    /**
+     * Set the listener notified of each refresh served under the refresh policy
+     *
+     * @param listener The listener, may be null
+     */
+
+    public void setRefreshPolicyListener(RefreshPolicy.Listener listener) {
+        refreshPolicyListener = listener;
+    }
+
+    /**
+     * Returns how the refresh request in progress should be served. Implementations of
+     * onRefreshRequest should send a conditional request, using the validator given by
+     * getRefreshValidator, when the decision is CONDITIONAL
+     *
+     * @return The decision for the current refresh request
+     */
+
+    public RefreshPolicy.Decision getRefreshDecision() {
+        return refreshHistory.getDecision();
+    }
+
+    /**
+     * Returns the validator of the last successful refresh, e.g. an ETag or version
+     *
+     * @param isTop If true, returns the validator for the top pulled view
+     * @return The validator, or null if there is none
+     */
+
+    public String getRefreshValidator(boolean isTop) {
+        return refreshHistory.getRecord(isTop).getValidator();
+    }
+
+    /**
+     * Returns the time of the last successful refresh
+     *
+     * @param isTop If true, returns the time for the top pulled view
+     * @return The time in milliseconds, or 0 if there was no refresh
+     */
+
+    public long getLastRefreshTime(boolean isTop) {
+        return refreshHistory.getRecord(isTop).getTime();
+    }
+
+    /**
+     * Records the validator and size of the content fetched by the refresh request in progress.
+     * Call this before requestComplete, so the refresh policy can use them for the next request
+     *
+     * @param validator The validator of the new content, may be null
+     * @param contentBytes The size of the new content
+     */
+
+    public void setRefreshValidator(String validator, long contentBytes) {
+        refreshHistory.setPending(validator, contentBytes);
+    }
+
+    /**
+     * Seeds the refresh history, e.g. from a RefreshCache entry when the fragment is created, so
+     * the refresh policy does not have to start with a full fetch
      *
-     * Default behaviour updates the default views if they are in use
+     * @param isTop If true, sets the history for the top pulled view
+     * @param time The time of the last successful refresh
+     * @param validator The validator of the cached content, may be null
+     * @param contentBytes The size of the cached content
+     */
+
+    public void setLastRefresh(boolean isTop, long time, String validator, long contentBytes) {
+        refreshHistory.getRecord(isTop).set(time, validator, contentBytes);
+    }
+
+    /**
+     * Consults the refresh policy and either completes the request immediately, or passes it on
+     * to onRefreshRequest
      *
      * @param previousState The previous pull state
      * @param isTop If true, the top view is begin pulled
-     * @param fromRestoredState If true, If true, the state is set from a previously restored state
+     * @param fromRestoredState If true, the state is set from a previously restored state
      */
 
-    protected void onPullEnd(PullState previousState, boolean isTop, boolean fromRestoredState) {
-        if (isTop) {
-            if (topManager != null) topManager.onPullEnd();
-        } else if (bottomManager != null) {
-            bottomManager.onPullEnd();
+    private void dispatchRefreshRequest(PullState previousState, boolean isTop,
+                                        boolean fromRestoredState) {
+        final RefreshPolicy.Decision decision = fromRestoredState ? refreshHistory.resume(isTop) :
+                refreshHistory.begin(refreshPolicy, isTop, System.currentTimeMillis());
+
+        if (decision == RefreshPolicy.Decision.SKIP) {
+            recordRefresh(true, false);
+            scroller.onRequestComplete(true);
+        } else {
+            onRefreshRequest(previousState, isTop, fromRestoredState);
+        }
+    }
+
+    /**
+     * Updates the refresh history when the refresh request in progress completes, and reports
+     * the outcome to the refresh policy listener
+     *
+     * @param success If true, the refresh request was completed successfully
+     * @param notModified If true, the source reported that the data has not changed
+     */
+
+    private void recordRefresh(boolean success, boolean notModified) {
+        if (!scroller.isWaiting()) {
+            return;
         }
 
-        Log.d(TAG, "[onPullEnd]");
+        final long bytesSaved = refreshHistory.complete(success, notModified,
+                System.currentTimeMillis());
+        if (refreshPolicy != null && refreshPolicyListener != null) {
+            refreshPolicyListener.onRefreshDecision(refreshHistory.getDecision(),
+                    refreshHistory.isTop(), bytesSaved);
+        }
     }
 
     /**
-     * Called when an item on the ListView has been clicked. Default behaviour does nothing
+     * Saves the last successful refresh of a pulled view
      *
-     * @param listView The ListView in which the click happened
-     * @param view The View that was clicked
-     * @param position The position of the View in the list
-     * @param id The row ID of the View
+     * @param outState The saved instance state
+     * @param key The key prefix of the pulled view
+     * @param record The record to save
      */
 
-    protected void onListItemClick(ListView listView, View view, int position, long id) {
-        // do nothing
+    private static void saveRefreshRecord(Bundle outState, String key,
+                                          RefreshHistory.Record record) {
+        outState.putLong(key + ":time", record.getTime());
+        outState.putString(key + ":validator", record.getValidator());
+        outState.putLong(key + ":contentBytes", record.getContentBytes());
     }
 
     /**
-     * Called when the list or grid has been scrolled
+     * Restores the last successful refresh of a pulled view
      *
-     * Default implementation ensures the pull event is correctly implemented
+     * @param savedInstanceState The saved instance state
+     * @param key The key prefix of the pulled view
+     * @param record The record to restore into
+     */
+
+    private static void restoreRefreshRecord(Bundle savedInstanceState, String key,
+                                             RefreshHistory.Record record) {
+        record.set(savedInstanceState.getLong(key + ":time", 0L),
+                savedInstanceState.getString(key + ":validator"),
+                savedInstanceState.getLong(key + ":contentBytes", 0L));
+    }
+
+    /**
+     * Starts a refresh programmatically, as if the user had pulled the view past the threshold.
+     * Does nothing if a pull is already in progress
      *
-     * @param absListView The view whose scroll state is being reported
-     * @param firstVisibleItem The first visible item position
-     * @param visibleItemCount The total number of items visible
-     * @param totalItemCount The last item visible
+     * @param isTop If true, the top view is refreshed
      */
 
-    @Override
-    public void onScroll(AbsListView absListView, int firstVisibleItem, int visibleItemCount,
-                         int totalItemCount) {
-        scroller.onScroll(absListView, firstVisibleItem, visibleItemCount, totalItemCount);
+    public void startRefresh(boolean isTop) {
+        scroller.startRefresh(isTop);
     }
 
     /**
-     * Called when the list or grid is being scrolled
+     * Persists the adapter contents to the given file after each successful refresh, and shows the
+     * last saved contents as soon as the view is created, until an adapter is set. Must be called
+     * before the view is created, e.g. in onCreate
      *
-     * @param absListView The view whose scroll state is being reported
-     * @param scrollState The current scroll state
+     * @param file The snapshot file
+     * @param codec Converts the adapter contents to and from the snapshot file
      */
 
-    @Override
-    public void onScrollStateChanged(AbsListView absListView, int scrollState) {
-        scroller.onScrollStateChanged(absListView, scrollState);
+    public <T> void setSnapshot(File file, SnapshotCodec<T> codec) {
+        if ((file == null) != (codec == null)) {
+            throw new IllegalArgumentException("The snapshot file and codec must both be set");
+        }
+        snapshotFile = file;
+        snapshotCodec = codec;
     }
 
     /**
-     * Called when the adapter dataset has changed
+     * Called when the adapter has been restored from a snapshot, after the view was created.
      *
-     * Default implementation shows the toggles the ListView on and off depending on whether its
-     * empty
+     * Default behaviour starts a top refresh, as the snapshot may be out of date
      */
 
-    protected void onDataSetChanged() {
-        if (listView.getAdapter() != null) {
-            setListShown(listView.getCount() != 0);
+    protected void onSnapshotRestored() {
+        startRefresh(true);
+    }
+
+    /**
+     * Saves a snapshot now, or once the pending refresh results have been applied
+     */
+
+    private void requestSnapshot() {
+        if (snapshotCodec == null) {
+            return;
+        }
+
+        if (batchApplier.isPending()) {
+            snapshotPending = true;
+        } else {
+            saveSnapshot(snapshotCodec);
         }
     }
 
     /**
-     * Called when the adapter dataset data is no longer valid
+     * Called when all the batched refresh results have been applied
+     */
+
+    private void onBatchesApplied() {
+        if (snapshotPending) {
+            snapshotPending = false;
+            requestSnapshot();
+        }
+    }
+
+    /**
+     * Captures the adapter contents on the UI thread, and writes them on the background thread
      *
-     * Default implementation immediately displays the empty view
+     * @param codec The snapshot codec
      */
 
-    protected void onDataSetInvalidated() {
-        setListShown(false);
+    private <T> void saveSnapshot(SnapshotCodec<T> codec) {
+        if (listView == null || listView.getAdapter() == null) {
+            return;
+        }
+
+        final T snapshot = codec.capture(listView.getAdapter());
+        if (snapshot != null) {
+            snapshotExecutor.execute(new SnapshotWriter<T>(snapshotFile, codec, snapshot));
+        }
     }
 
-    public static interface PullStateListener {
-        public void onPullStarted();
-        public void onPullThreshold(boolean aboveThreshold);
-        public void onRefreshRequest();
-        public void onRequestComplete(boolean success);
-        public void onPullEnd();
+    /**
+     * Reads the snapshot on the background thread
+     *
+     * @param codec The snapshot codec
+     */
+
+    private <T> void loadSnapshot(SnapshotCodec<T> codec) {
+        final SnapshotLoader<T> loader = new SnapshotLoader<T>(this, snapshotFile, codec);
+        snapshotLoader = loader;
+        snapshotExecutor.execute(loader);
+    }
+
+    /**
+     * Called on the UI thread when a snapshot has been read. The adapter is only created if the
+     * loader is still current and the list has no adapter yet
+     *
+     * @param loader The loader which read the snapshot
+     * @param snapshot The snapshot, null if there was none
+     */
+
+    private <T> void onSnapshotLoaded(SnapshotLoader<T> loader, T snapshot) {
+        if (snapshotLoader != loader || loader.cancelled) {
+            // the view has been destroyed, or a newer snapshot is being read
+            return;
+        }
+        snapshotLoader = null;
+
+        if (snapshot != null && listView != null && listView.getAdapter() == null) {
+            setListAdapter(loader.codec.createAdapter(snapshot));
+            onSnapshotRestored();
+        }
+    }
+
+    /**
+     * Returns true if there are refresh results still waiting to be applied to the adapter
+     *
+     * @return True if batches are pending
+     */
+
+    public boolean isApplyingBatches() {
+        return batchApplier.isPending();
+    }
+
+    /**
+     * Set the time budget per frame used to apply batched refresh results. Default value is 8
+     * milliseconds
+     *
+     * @param millis The time budget in milliseconds
+     */
+
+    public void setBatchBudget(int millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("The batch budget must be positive");
+        }
+        batchApplier.budget = millis;
+    }
+
+    /**
+     * Returns the time budget per frame used to apply batched refresh results
+     *
+     * @return The time budget in milliseconds
+     */
+
+    public int getBatchBudget() {
+        return batchApplier.budget;
+    }
+
+    /**
+     * Called when the refresh request has been completed
+     *
+     * Default behaviour notifies the pull state listeners of the pulled side, including the
+     * default view if it is in use
+     *
+     * @param success If true, the refresh request was completed successfully
+     * @param isTop If true, the top view is begin pulled
+     */
+
+    protected void onRequestComplete(boolean success, boolean isTop) {
+        final PullStateListener[] listeners = isTop ? topListeners : bottomListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onRequestComplete(success);
+        }
+
+        Diagnostics.event(Diagnostics.EVENT_REQUEST_COMPLETE, success ? 1 : 0);
+    }
+
+    /**
+     * Called when the pull action has ended
+     *
+     * Default behaviour notifies the pull state listeners of the pulled side, including the
+     * default view if it is in use
+     *
+     * @param previousState The previous pull state
+     * @param isTop If true, the top view is begin pulled
+     * @param fromRestoredState If true, If true, the state is set from a previously restored state
+     */
+
+    protected void onPullEnd(PullState previousState, boolean isTop, boolean fromRestoredState) {
+        final PullStateListener[] listeners = isTop ? topListeners : bottomListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onPullEnd();
+        }
+
+        Diagnostics.event(Diagnostics.EVENT_PULL_END, isTop ? 1 : 0);
+    }
+
+    /**
+     * Called when an item on the ListView has been clicked. Default behaviour does nothing
+     *
+     * @param listView The ListView in which the click happened
+     * @param view The View that was clicked
+     * @param position The position of the View in the list
+     * @param id The row ID of the View
+     */
+
+    protected void onListItemClick(ListView listView, View view, int position, long id) {
+        // do nothing
+    }
+
+    /**
+     * Called when the list or grid has been scrolled
+     *
+     * Default implementation ensures the pull event is correctly implemented
+     *
+     * @param absListView The view whose scroll state is being reported
+     * @param firstVisibleItem The first visible item position
+     * @param visibleItemCount The total number of items visible
+     * @param totalItemCount The last item visible
+     */
+
+    @Override
+    public void onScroll(AbsListView absListView, int firstVisibleItem, int visibleItemCount,
+                         int totalItemCount) {
+        scroller.onScroll(absListView, firstVisibleItem, visibleItemCount, totalItemCount);
+        if (scrollAnchoringEnabled) {
+            scrollAnchor.capture(absListView, firstVisibleItem);
+        }
+    }
+
+    /**
+     * Called when the list or grid is being scrolled
+     *
+     * @param absListView The view whose scroll state is being reported
+     * @param scrollState The current scroll state
+     */
+
+    @Override
+    public void onScrollStateChanged(AbsListView absListView, int scrollState) {
+        scroller.onScrollStateChanged(absListView, scrollState);
+    }
+
+    /**
+     * Called when the adapter dataset has changed
+     *
+     * Default implementation shows the toggles the ListView on and off depending on whether its
+     * empty
+     */
+
+    protected void onDataSetChanged() {
+        if (listView.getAdapter() != null) {
+            setListShown(listView.getCount() != 0);
+        }
+    }
+
+    /**
+     * Called when the adapter dataset data is no longer valid
+     *
+     * Default implementation immediately displays the empty view
+     */
+
+    protected void onDataSetInvalidated() {
+        setListShown(false);
+    }
+
+    /**
+     * Returns the number of change notifications received from the adapter
+     *
+     * @return The number of change notifications
+     */
+
+    public int getDataSetChangeCount() {
+        return observer.changeCount;
+    }
+
+    /**
+     * Returns the number of change notifications which were merged into an earlier one, because
+     * they arrived within the same frame. A high count indicates a chatty adapter
+     *
+     * @return The number of coalesced change notifications
+     */
+
+    public int getCoalescedDataSetChangeCount() {
+        return observer.coalescedCount;
+    }
+
+    /**
+     * Resets the data set change counters
+     */
+
+    public void resetDataSetChangeCounters() {
+        observer.changeCount = 0;
+        observer.coalescedCount = 0;
+    }
+
+    /**
+     * Adds a listener to the pull events of one side, e.g. for analytics, haptics or a custom
+     * header. Listeners are called in the order they were added, after the default view which is
+     * always added first. Listeners outlive the views of the fragment, listeners holding on to
+     * views should be removed in onDestroyView
+     *
+     * @param isTop If true, the listener receives the events of the top pulled view
+     * @param listener The listener to add
+     */
+
+    public void addPullStateListener(boolean isTop, PullStateListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("The listener cannot be null!");
+        }
+
+        if (isTop) {
+            topListeners = with(topListeners, listener, topListeners.length);
+        } else {
+            bottomListeners = with(bottomListeners, listener, bottomListeners.length);
+        }
+    }
+
+    /**
+     * Removes a listener previously added to one side. Listeners may remove themselves, or each
+     * other, while an event is dispatched, the current dispatch is not affected
+     *
+     * @param isTop If true, the listener is removed from the top pulled view
+     * @param listener The listener to remove
+     */
+
+    public void removePullStateListener(boolean isTop, PullStateListener listener) {
+        if (isTop) {
+            removeTopListener(listener);
+        } else {
+            removeBottomListener(listener);
+        }
+    }
+
+    private void removeTopListener(PullStateListener listener) {
+        topListeners = without(topListeners, listener);
+    }
+
+    private void removeBottomListener(PullStateListener listener) {
+        bottomListeners = without(bottomListeners, listener);
+    }
+
+    /**
+     * Returns a copy of the listeners with the given listener inserted
+     *
+     * @param listeners The current listeners
+     * @param listener The listener to insert
+     * @param index The position of the new listener
+     * @return The new listeners
+     */
+
+    private static PullStateListener[] with(PullStateListener[] listeners,
+                                            PullStateListener listener, int index) {
+        final PullStateListener[] newListeners = new PullStateListener[listeners.length + 1];
+        System.arraycopy(listeners, 0, newListeners, 0, index);
+        newListeners[index] = listener;
+        System.arraycopy(listeners, index, newListeners, index + 1, listeners.length - index);
+        return newListeners;
+    }
+
+    /**
+     * Returns a copy of the listeners without the first occurrence of the given listener
+     *
+     * @param listeners The current listeners
+     * @param listener The listener to remove
+     * @return The new listeners, or the same array if the listener was not found
+     */
+
+    private static PullStateListener[] without(PullStateListener[] listeners,
+                                               PullStateListener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                if (listeners.length == 1) {
+                    return NO_LISTENERS;
+                }
+
+                final PullStateListener[] newListeners = new PullStateListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, newListeners, 0, i);
+                System.arraycopy(listeners, i + 1, newListeners, i, listeners.length - i - 1);
+                return newListeners;
+            }
+        }
+
+        return listeners;
+    }
+
+    /**
+     * Set the listener receiving the frame statistics of each pull. Frames are only timed while a
+     * listener is set
+     *
+     * @param listener The new listener, or null to stop recording
+     */
+
+    public void setPullMetricsListener(PullMetricsListener listener) {
+        pullMetricsListener = listener;
+        if (listener == null) {
+            pullMetrics.reset();
+            frameRequestTime = 0L;
+        }
+    }
+
+    public PullMetricsListener getPullMetricsListener() {
+        return pullMetricsListener;
+    }
+
+    /**
+     * Set the time above which a frame of a pull is counted as janky. The default of 24ms allows
+     * a frame to arrive up to half a frame late at 60 frames per second
+     *
+     * @param millis The frame budget in milliseconds
+     */
+
+    public void setFrameBudget(float millis) {
+        pullMetrics.setFrameBudget((int)(millis * 1000.0f));
+    }
+
+    /**
+     * Set the listener receiving the pull distance. The distance is delivered at most once per
+     * frame, just before the frame is drawn, and only when it has changed
+     *
+     * @param listener The new listener, or null to remove it
+     */
+
+    public void setPullProgressListener(PullProgressListener listener) {
+        pullProgressListener = listener;
+        if (listener == null) {
+            progressDispatcher.detach();
+        } else if (layout != null) {
+            progressDispatcher.attach(layout);
+        }
+    }
+
+    public PullProgressListener getPullProgressListener() {
+        return pullProgressListener;
+    }
+
+    public static interface PullStateListener {
+        public void onPullStarted();
+        public void onPullThreshold(boolean aboveThreshold);
+        public void onRefreshRequest();
+        public void onRequestComplete(boolean success);
+        public void onPullEnd();
+    }
+
+    /**
+     * Receives the pull distance continuously, e.g. to animate a custom header with the pull
+     */
+
+    public static interface PullProgressListener {
+
+        /**
+         * Called before a frame is drawn, if the pull distance has changed since the last frame.
+         * Called on the UI thread, implementations should not allocate
+         *
+         * @param fraction The distance relative to the refresh threshold, 1 at the threshold
+         * @param offsetPx The distance in pixels
+         * @param isTop If true, the top view is pulled
+         */
+
+        public void onPullProgress(float fraction, int offsetPx, boolean isTop);
+    }
+
+    /**
+     * Receives the frame statistics of each pull gesture, e.g. to monitor smoothness in the field
+     */
+
+    public static interface PullMetricsListener {
+
+        /**
+         * Called when a pull ends, just before onPullEnd. The metrics object is reused for the
+         * next pull, implementations must copy the values they want to keep
+         *
+         * @param metrics The statistics of the pull
+         */
+
+        public void onPullMetrics(PullMetrics metrics);
+    }
+
+    /**
+     * Implemented by pulled views which run their own animations, so they can be paused while
+     * the fragment cannot be seen. Resumed animations should continue where they left off
+     */
+
+    public static interface Suspendable {
+        public void suspendAnimations();
+        public void resumeAnimations();
+    }
+
+    /**
+     * Applies the results of a refresh request to the adapter a few items at a time. The
+     * implementation is responsible for notifying the adapter after each batch
+     */
+
+    public static interface ResultBatcher {
+        public int getRemainingCount();
+        public void applyBatch(int count);
+    }
+
+    /**
+     * Converts the contents of an adapter to and from a compact binary snapshot. Only capture and
+     * createAdapter are called on the UI thread
+     *
+     * @param <T> An immutable copy of the adapter contents
+     */
+
+    public static interface SnapshotCodec<T> {
+        public T capture(ListAdapter adapter);
+        public void write(T snapshot, DataOutputStream out) throws IOException;
+        public T read(DataInputStream in) throws IOException;
+        public ListAdapter createAdapter(T snapshot);
+    }
+
+    /**
+     * Writes a snapshot to a temporary file, then moves it over the previous snapshot so a
+     * partially written file is never read
+     */
+
+    private static class SnapshotWriter<T> implements Runnable {
+
+        private final File file;
+        private final SnapshotCodec<T> codec;
+        private final T snapshot;
+
+        private SnapshotWriter(File file, SnapshotCodec<T> codec, T snapshot) {
+            this.file = file;
+            this.codec = codec;
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public void run() {
+            final File temp = new File(file.getPath() + ".tmp");
+            try {
+                final DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(temp)));
+                try {
+                    codec.write(snapshot, out);
+                } finally {
+                    out.close();
+                }
+
+                if (!temp.renameTo(file)) {
+                    throw new IOException("Could not replace " + file);
+                }
+            } catch (IOException e) {
+                Diagnostics.warn(TAG, "[SnapshotWriter] Failed to save snapshot", e);
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Reads a snapshot on the background thread and delivers the restored adapter on the UI
+     * thread
+     */
+
+    private static class SnapshotLoader<T> implements Runnable {
+
+        private final PullListFragment parent;
+        private final File file;
+        private final SnapshotCodec<T> codec;
+
+        /** if true, the view was destroyed and the result is not posted, guarded by this */
+        private volatile boolean cancelled = false;
+
+        private SnapshotLoader(PullListFragment parent, File file, SnapshotCodec<T> codec) {
+            this.parent = parent;
+            this.file = file;
+            this.codec = codec;
+        }
+
+        @Override
+        public void run() {
+            T snapshot = null;
+            if (file.exists()) {
+                try {
+                    final DataInputStream in = new DataInputStream(
+                            new BufferedInputStream(new FileInputStream(file)));
+                    try {
+                        snapshot = codec.read(in);
+                    } finally {
+                        in.close();
+                    }
+                } catch (IOException e) {
+                    Diagnostics.warn(TAG, "[SnapshotLoader] Ignoring unreadable snapshot", e);
+                }
+            }
+
+            final T result = snapshot;
+            synchronized (this) {
+                // posting under the lock ensures the post is either removed by the cancelling
+                // scheduler, or never made
+                if (cancelled) {
+                    return;
+                }
+
+                parent.scheduler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        parent.onSnapshotLoaded(SnapshotLoader.this, result);
+                    }
+                });
+            }
+        }
+
+        /**
+         * Prevents the result from being posted. Must be called before the callbacks of the
+         * scheduler are cancelled
+         */
+
+        private synchronized void cancel() {
+            cancelled = true;
+        }
+    }
+
+    /**
+     * Applies pending refresh results under a time budget, posting itself once per frame until
+     * all of the results have been applied
+     */
+
+    private static class ResultBatchApplier implements Runnable {
+
+        /** the smallest number of items applied in one batch */
+        private static final int MIN_BATCH_SIZE = 16;
+
+        /** wait period between each batch, roughly one frame */
+        private static final int BATCH_INTERVAL = 16;
+
+        private final PullListFragment parent;
+        private ResultBatcher batcher;
+        private int batchSize;
+        private int budget;
+        private boolean suspended;
+
+        private ResultBatchApplier(PullListFragment parent) {
+            this.parent = parent;
+            budget = 8;
+        }
+
+        /**
+         * Applies the first batch immediately and schedules the rest
+         *
+         * @param batcher The pending results
+         * @param batchSize The number of items in each batch, roughly a screenful
+         */
+
+        private void start(ResultBatcher batcher, int batchSize) {
+            flush();
+            this.batcher = batcher;
+            this.batchSize = batchSize;
+            batcher.applyBatch(batchSize);
+            if (batcher.getRemainingCount() > 0) {
+                if (!suspended) {
+                    parent.scheduler.postDelayed(this, BATCH_INTERVAL);
+                }
+            } else {
+                this.batcher = null;
+                parent.onBatchesApplied();
+            }
+        }
+
+        /**
+         * Stops applying batches until resumed, the pending results are kept
+         */
+
+        private void suspend() {
+            suspended = true;
+            parent.scheduler.removeCallbacks(this);
+        }
+
+        private void resume() {
+            suspended = false;
+            if (batcher != null) {
+                parent.scheduler.removeCallbacks(this);
+                parent.scheduler.postDelayed(this, BATCH_INTERVAL);
+            }
+        }
+
+        private boolean isPending() {
+            return batcher != null;
+        }
+
+        /**
+         * Applies all the remaining results immediately
+         */
+
+        private void flush() {
+            parent.scheduler.removeCallbacks(this);
+            if (batcher != null) {
+                final int remaining = batcher.getRemainingCount();
+                if (remaining > 0) {
+                    batcher.applyBatch(remaining);
+                }
+                batcher = null;
+                parent.onBatchesApplied();
+            }
+        }
+
+        @Override
+        public void run() {
+            final long deadline = SystemClock.uptimeMillis() + budget;
+            while (batcher.getRemainingCount() > 0) {
+                batcher.applyBatch(batchSize);
+                if (SystemClock.uptimeMillis() >= deadline) {
+                    break;
+                }
+            }
+
+            if (batcher.getRemainingCount() > 0) {
+                parent.scheduler.postDelayed(this, BATCH_INTERVAL);
+            } else {
+                batcher = null;
+                parent.onBatchesApplied();
+            }
+        }
+    }
+
+    /**
+     * A custom DataSetObserver which listens to changes in the list size. Bursts of change
+     * notifications are coalesced into at most one onDataSetChanged call per frame
+     */
+
+    private class CustomDataSetObserver extends DataSetObserver implements Runnable {
+
+        /** minimum time between two onDataSetChanged calls, roughly one frame */
+        private static final int FRAME_INTERVAL = 16;
+
+        private boolean scheduled = false;
+        private long lastDispatchTime = 0L;
+        private int changeCount = 0;
+        private int coalescedCount = 0;
+
+        /**
+         * Called when the dataset has changed
+         */
+
+        @Override
+        public void onChanged() {
+            changeCount++;
+            // the anchor has to be flagged before the next layout, so it is not deferred
+            if (scrollAnchoringEnabled) {
+                scrollAnchor.markPending();
+            }
+
+            if (scheduled) {
+                coalescedCount++;
+                return;
+            }
+
+            scheduled = true;
+            final long wait = lastDispatchTime + FRAME_INTERVAL - SystemClock.uptimeMillis();
+            scheduler.postDelayed(this, Math.max(wait, 0L));
+        }
+
+        /**
+         * Called when the dataset is no longer valid
+         */
+
+        @Override
+        public void onInvalidated() {
+            cancel();
+            scrollAnchor.clear();
+            PullListFragment.this.onDataSetInvalidated();
+        }
+
+        /**
+         * Dispatches the coalesced change notifications
+         */
+
+        @Override
+        public void run() {
+            scheduled = false;
+            lastDispatchTime = SystemClock.uptimeMillis();
+            if (listView != null) {
+                PullListFragment.this.onDataSetChanged();
+            }
+        }
+
+        /**
+         * Drops any change notification waiting to be dispatched
+         */
+
+        private void cancel() {
+            scheduler.removeCallbacks(this);
+            scheduled = false;
+        }
+    }
+
+    /**
+     * Remembers the stable ID and pixel offset of the first visible item, so that its position
+     * on screen can be restored after the adapter data has changed
+     */
+
+    private static class ScrollAnchor {
+
+        private boolean valid;
+        private boolean pending;
+        private int position;
+        private long id;
+        private int top;
+
+        /**
+         * Records the first visible item of the list
+         *
+         * @param absListView The list being scrolled or laid out
+         * @param firstVisibleItem The first visible item position
+         */
+
+        private void capture(AbsListView absListView, int firstVisibleItem) {
+            final ListAdapter adapter = absListView.getAdapter();
+            final View child = absListView.getChildAt(0);
+            if (adapter == null || child == null || !adapter.hasStableIds() ||
+                    firstVisibleItem >= adapter.getCount()) {
+                valid = false;
+                return;
+            }
+
+            valid = true;
+            position = firstVisibleItem;
+            id = adapter.getItemId(firstVisibleItem);
+            top = child.getTop() - absListView.getPaddingTop();
+        }
+
+        /**
+         * Flags the anchor to be restored in the next layout pass
+         */
+
+        private void markPending() {
+            pending = valid;
+        }
+
+        private void clear() {
+            valid = false;
+            pending = false;
+        }
+
+        /**
+         * Moves the anchored item back to its captured offset. Must be called before the list
+         * lays out its children, so the selection is applied within the same layout pass
+         *
+         * @param listView The list to restore the anchor on
+         */
+
+        private void restore(ListView listView) {
+            if (!pending) {
+                return;
+            }
+            pending = false;
+
+            final ListAdapter adapter = listView.getAdapter();
+            if (adapter == null || !adapter.hasStableIds()) {
+                return;
+            }
+
+            final int newPosition = findPosition(adapter);
+            if (newPosition != AdapterView.INVALID_POSITION) {
+                listView.setSelectionFromTop(newPosition, top);
+            }
+        }
+
+        /**
+         * Searches outwards from the previous position for the anchored item ID, as inserted or
+         * removed items usually shift the anchor by a small amount
+         *
+         * @param adapter The adapter containing the new data
+         * @return The new position of the anchored item, or INVALID_POSITION if it was removed
+         */
+
+        private int findPosition(ListAdapter adapter) {
+            final int count = adapter.getCount();
+            final int start = Math.min(position, count - 1);
+            for (int i = 0; start + i < count || start - i >= 0; i++) {
+                if (start + i < count && adapter.getItemId(start + i) == id) {
+                    return start + i;
+                }
+                if (i != 0 && start - i >= 0 && adapter.getItemId(start - i) == id) {
+                    return start - i;
+                }
+            }
+
+            return AdapterView.INVALID_POSITION;
+        }
+    }
+
+    /**
+     * This class extends RelativeLayout to listen to changes in the layout
+     */
+
+    private static class PullToRefreshLayout extends RelativeLayout {
+
+        private final PullListFragment parent;
+
+        /** the pulled view geometry last reported to the scroller */
+        private View topView;
+        private int topHeight = -2;
+        private int topPadding = -2;
+        private View bottomView;
+        private int bottomHeight = -2;
+        private int bottomPadding = -2;
+
+        public PullToRefreshLayout(PullListFragment parent) {
+            super(parent.getActivity());
+            this.parent = parent;
+        }
+
+        @Override
+        protected void dispatchDraw(Canvas canvas) {
+            canvas.translate(0, parent.accumulatedOffset);
+            super.dispatchDraw(canvas);
+            parent.onFrameDrawn();
+        }
+
+        /**
+         * Draws only the revealed slice of the pulled views, and skips them entirely when they
+         * are fully hidden, which is the case for every frame outside of a pull
+         */
+
+        @Override
+        protected boolean drawChild(Canvas canvas, View child, long drawingTime) {
+            final int revealed;
+            final int clipTop;
+            if (child == parent.topPulledView) {
+                revealed = Math.min(parent.accumulatedOffset, child.getHeight());
+                clipTop = child.getBottom() - revealed;
+            } else if (child == parent.bottomPulledView) {
+                revealed = Math.min(-parent.accumulatedOffset, child.getHeight());
+                clipTop = child.getTop();
+            } else {
+                return super.drawChild(canvas, child, drawingTime);
+            }
+
+            if (revealed <= 0) {
+                return false;
+            }
+
+            final int saveCount = canvas.save();
+            canvas.clipRect(child.getLeft(), clipTop, child.getRight(), clipTop + revealed);
+            final boolean more = super.drawChild(canvas, child, drawingTime);
+            canvas.restoreToCount(saveCount);
+            return more;
+        }
+
+        @Override
+        protected void onWindowVisibilityChanged(int visibility) {
+            super.onWindowVisibilityChanged(visibility);
+            parent.onLayoutShownChanged(visibility == VISIBLE);
+        }
+
+        @Override
+        protected void onDetachedFromWindow() {
+            super.onDetachedFromWindow();
+            parent.onLayoutShownChanged(false);
+        }
+
+        @Override
+        protected void onLayout(boolean changed, int l, int t, int r, int b) {
+            super.onLayout(changed, l, t, r, b);
+
+            // moves the pulled views out of sight, unless they are already there
+            final View topContainer = parent.topPulledView;
+            if (topContainer.getTop() != -topContainer.getHeight()) {
+                topContainer.offsetTopAndBottom(-topContainer.getHeight() - topContainer.getTop());
+            }
+            final View bottomContainer = parent.bottomPulledView;
+            if (bottomContainer.getTop() != b - t) {
+                bottomContainer.offsetTopAndBottom(b - t - bottomContainer.getTop());
+            }
+
+            // report geometry changes to the scroller, ordinary list layouts change nothing
+            final View top = parent.topPulledView.getChildAt(0);
+            final int topHeight = top != null ? top.getHeight() : -1;
+            final int topPadding = top != null ? top.getPaddingTop() : -1;
+            if (top != topView || topHeight != this.topHeight || topPadding != this.topPadding) {
+                topView = top;
+                this.topHeight = topHeight;
+                this.topPadding = topPadding;
+                parent.scroller.onTopPulledViewLayout(top);
+            }
+
+            final View bottom = parent.bottomPulledView.getChildAt(0);
+            final int bottomHeight = bottom != null ? bottom.getHeight() : -1;
+            final int bottomPadding = bottom != null ? bottom.getPaddingBottom() : -1;
+            if (bottom != bottomView || bottomHeight != this.bottomHeight ||
+                    bottomPadding != this.bottomPadding) {
+                bottomView = bottom;
+                this.bottomHeight = bottomHeight;
+                this.bottomPadding = bottomPadding;
+                parent.scroller.onBottomPulledViewLayout(bottom);
+            }
+        }
+    }
+
+    /**
+     * Delivers the committed pull offset to the PullProgressListener before each frame
+     */
+
+    private static class ProgressDispatcher implements ViewTreeObserver.OnPreDrawListener {
+
+        private final PullListFragment parent;
+
+        /** the view whose observer the dispatcher is registered with, null while detached */
+        private View view;
+
+        /** the last delivered offset and side */
+        private int offset;
+        private boolean isTop;
+
+        private ProgressDispatcher(PullListFragment parent) {
+            this.parent = parent;
+            offset = 0;
+            isTop = true;
+        }
+
+        private void attach(View view) {
+            if (this.view == null) {
+                this.view = view;
+                view.getViewTreeObserver().addOnPreDrawListener(this);
+                offset = 0;
+            }
+        }
+
+        private void detach() {
+            if (view != null) {
+                // the observer of a view changes when it is attached to a window
+                final ViewTreeObserver observer = view.getViewTreeObserver();
+                if (observer.isAlive()) {
+                    observer.removeOnPreDrawListener(this);
+                }
+                view = null;
+            }
+        }
+
+        @Override
+        public boolean onPreDraw() {
+            final int newOffset = parent.accumulatedOffset;
+            final PullProgressListener listener = parent.pullProgressListener;
+            if (newOffset == offset || listener == null || parent.scroller == null) {
+                return true;
+            }
+
+            // the side of the last pull is kept while the offset returns to zero
+            if (newOffset != 0) {
+                isTop = newOffset > 0;
+            }
+            offset = newOffset;
+
+            final int distance = Math.abs(newOffset);
+            final int threshold = isTop ? parent.scroller.topContentSize :
+                    parent.scroller.bottomContentSize;
+            listener.onPullProgress(threshold > 0 ? (float)distance / threshold : 0.0f, distance,
+                    isTop);
+            return true;
+        }
+    }
+
+    /**
+     * This class extends ListView to capture additional information
+     */
+
+    private static class CustomListView extends ListView {
+
+        private final PullListFragment parent;
+
+        public CustomListView(PullListFragment parent) {
+            super(parent.getActivity());
+            this.parent = parent;
+        }
+
+        @Override
+        protected void layoutChildren() {
+            // restoring the anchor here avoids a second layout pass
+            parent.scrollAnchor.restore(this);
+            super.layoutChildren();
+        }
+
+        @Override
+        protected void onOverScrolled(int scrollX, int scrollY, boolean clampedX, boolean clampedY) {
+            super.onOverScrolled(scrollX, scrollY, clampedX, clampedY);
+            if (parent.scroller != null) {
+                parent.scroller.onOverScrolled(clampedY);
+            }
+        }
+
+        @Override
+        public boolean onTouchEvent(MotionEvent e) {
+            if (parent.scroller != null) {
+                return parent.scroller.onTouchEvent(e) || super.onTouchEvent(e);
+            } else {
+                return super.onTouchEvent(e);
+            }
+        }
+    }
+
+    /**
+     * A unit of refresh work which outlives configuration changes. Implementations start the work
+     * in onStart and call complete from the UI thread when it is done. The result is held until a
+     * fragment is attached, and then handed to onDeliver
+     */
+
+    public static abstract class RefreshTask {
+
+        /** the fragment receiving the result, null while none is attached */
+        private PullListFragment fragment;
+
+        private boolean started = false;
+        private boolean complete = false;
+        private boolean cancelled = false;
+        private boolean success;
+        private boolean notModified;
+
+        /**
+         * Called when the task is started, begins the refresh work
+         */
+
+        protected abstract void onStart();
+
+        /**
+         * Called when the task is cancelled before completing. Implementations should abort the
+         * refresh work
+         */
+
+        protected void onCancel() {
+            // do nothing by default
+        }
+
+        /**
+         * Called on the UI thread when the result is delivered to a fragment. Implementations
+         * applying data to the adapter should do so here, and must complete the request on the
+         * fragment. Default behaviour completes the request without applying any data
+         *
+         * @param fragment The fragment the result is delivered to
+         * @param success If true, the refresh work was completed successfully
+         * @param notModified If true, the source reported that the data has not changed
+         */
+
+        protected void onDeliver(PullListFragment fragment, boolean success, boolean notModified) {
+            if (success && notModified) {
+                fragment.requestNotModified();
+            } else {
+                fragment.requestComplete(success);
+            }
+        }
+
+        /**
+         * Call this method from the UI thread when the refresh work has been completed
+         *
+         * @param success If true, the refresh work was completed successfully
+         */
+
+        public final void complete(boolean success) {
+            complete(success, false);
+        }
+
+        /**
+         * Call this method from the UI thread when a conditional request has been answered with
+         * "not modified"
+         */
+
+        public final void completeNotModified() {
+            complete(true, true);
+        }
+
+        /**
+         * Cancels the task, the result will not be delivered
+         */
+
+        public final void cancel() {
+            if (!complete && !cancelled) {
+                cancelled = true;
+                onCancel();
+            }
+        }
+
+        public final boolean isComplete() {
+            return complete;
+        }
+
+        public final boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void complete(boolean success, boolean notModified) {
+            if (complete || cancelled) {
+                return;
+            }
+
+            this.complete = true;
+            this.success = success;
+            this.notModified = notModified;
+            if (fragment != null) {
+                fragment.deliverRefreshTask(this);
+            }
+        }
+    }
+
+    /**
+     * Implemented by adapters which can report their approximate size, so they count towards the
+     * retention budget
+     */
+
+    public static interface RetainedData {
+        public int getRetainedBytes();
+    }
+
+    /**
+     * An object retained along with the list adapter
+     */
+
+    private static class RetainedValue {
+
+        private final Object value;
+        private final int bytes;
+
+        private RetainedValue(Object value, int bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * The data retained by a single fragment
+     */
+
+    private static class RetainedSlot {
+
+        private final String key;
+        private ListAdapter adapter;
+        private RefreshTask refreshTask;
+        private final HashMap<String, RetainedValue> extras;
+
+        /** if true, a fragment instance is using the slot */
+        private boolean attached;
+
+        private RetainedSlot(String key) {
+            this.key = key;
+            this.extras = new HashMap<String, RetainedValue>();
+            this.attached = false;
+        }
+
+        /**
+         * Returns true if the slot holds a refresh task whose result has not been delivered yet.
+         * Such a slot is waiting for a fragment to reattach, e.g. during a rotation, so it is
+         * never dropped to fit the budget
+         *
+         * @return True if a refresh task is running or waiting for delivery
+         */
+
+        private boolean hasPendingTask() {
+            return refreshTask != null && !refreshTask.isCancelled();
+        }
+
+        private int getAdapterBytes() {
+            return adapter instanceof RetainedData ? ((RetainedData)adapter).getRetainedBytes() : 0;
+        }
+
+        private int getExtrasBytes() {
+            int bytes = 0;
+            for (RetainedValue retained : extras.values()) {
+                bytes += retained.bytes;
+            }
+
+            return bytes;
+        }
+
+        private void clear() {
+            if (refreshTask != null) {
+                refreshTask.cancel();
+                refreshTask = null;
+            }
+            adapter = null;
+            extras.clear();
+        }
     }
 
     /**
-     * A custom DataSetObserver which listens to changes in the list size
+     * Holds the data of every PullListFragment in an activity over configuration changes, keyed by
+     * the retention key of each fragment. The total size is kept within a budget, and data is
+     * dropped in least recently used order when memory is low
      */
 
-    private class CustomDataSetObserver extends DataSetObserver {
+    private static class RetainedFragment extends Fragment implements MemoryTrimmer.Trimmable {
 
-        /**
-         * Called when the dataset has changed
-         */
+        public static final String TAG = RetainedFragment.class.getName();
 
-        @Override
-        public void onChanged() {
-            PullListFragment.this.onDataSetChanged();
+        /** the default budget as a fraction of the maximum heap size */
+        private static final int DEFAULT_BUDGET_DIVISOR = 8;
+
+        /** retained fragments added to an activity, but not yet created and found by their tag */
+        private static final Map<FragmentActivity, RetainedFragment> pending =
+                new WeakHashMap<FragmentActivity, RetainedFragment>();
+
+        /** the slots in access order */
+        private final LinkedHashMap<String, RetainedSlot> slots;
+        private int budget;
+
+        public RetainedFragment() {
+            slots = new LinkedHashMap<String, RetainedSlot>(8, 0.75f, true);
+            budget = (int)Math.min(Integer.MAX_VALUE,
+                    Runtime.getRuntime().maxMemory() / DEFAULT_BUDGET_DIVISOR);
         }
 
         /**
-         * Called when the dataset is no longer valid
+         * Finds the retained fragment of the activity, or adds one. Fragments attaching within
+         * the same frame share the fragment, even though the transaction has not been executed yet
+         *
+         * @param activity The activity
+         * @return The retained fragment
          */
 
-        @Override
-        public void onInvalidated() {
-            PullListFragment.this.onDataSetInvalidated();
-        }
-    }
+        private static RetainedFragment obtain(FragmentActivity activity) {
+            RetainedFragment retainedFragment = (RetainedFragment)activity
+                    .getSupportFragmentManager().findFragmentByTag(TAG);
+            if (retainedFragment != null) {
+                pending.remove(activity);
+            } else {
+                retainedFragment = pending.get(activity);
+            }
 
-    /**
-     * This class extends RelativeLayout to listen to changes in the layout
-     */
+            if (retainedFragment == null) {
+                retainedFragment = new RetainedFragment();
+                activity.getSupportFragmentManager().beginTransaction().add(retainedFragment,
+                        TAG).commit();
+                pending.put(activity, retainedFragment);
+            }
 
-    private static class PullToRefreshLayout extends RelativeLayout {
+            return retainedFragment;
+        }
 
-        private final PullListFragment parent;
+        @Override
+        public void onCreate(Bundle savedInstanceState) {
+            super.onCreate(savedInstanceState);
+            setRetainInstance(true);
+            MemoryTrimmer.register(getActivity(), this);
 
-        public PullToRefreshLayout(PullListFragment parent) {
-            super(parent.getActivity());
-            this.parent = parent;
+            // the transaction has been executed, the fragment can now be found by its tag
+            pending.remove(getActivity());
         }
 
         @Override
-        protected void dispatchDraw(Canvas canvas) {
-            canvas.translate(0, parent.accumulatedOffset);
-            super.dispatchDraw(canvas);
+        public void onDestroy() {
+            super.onDestroy();
+
+            MemoryTrimmer.unregister(this);
+
+            // only called when the activity is finished for good
+            for (RetainedSlot slot : slots.values()) {
+                slot.clear();
+            }
+            slots.clear();
         }
 
         @Override
-        protected void onLayout(boolean changed, int l, int t, int r, int b) {
-            super.onLayout(changed, l, t, r, b);
-            parent.topPulledView.offsetTopAndBottom(-parent.topPulledView.getHeight());
-            parent.bottomPulledView.offsetTopAndBottom(parent.bottomPulledView.getHeight());
+        public void onLowMemory() {
+            super.onLowMemory();
 
-            // report changes to the scroller
-            parent.scroller.onTopPulledViewLayout(parent.topPulledView.getChildAt(0));
-            parent.scroller.onBottomPulledViewLayout(parent.bottomPulledView.getChildAt(0));
+            MemoryTrimmer.onComponentLowMemory();
         }
-    }
 
-    /**
-     * This class extends ListView to capture additional information
-     */
+        /**
+         * Drops retained data according to the policy. Only the slots which are not attached and
+         * have no pending refresh task are dropped for DROP_OFFSCREEN, while the adapters of
+         * attached slots are kept even for DROP_ALL, since they are still in use by their lists
+         *
+         * @param policy What should be released
+         */
 
-    private static class CustomListView extends ListView {
+        @Override
+        public void onTrimMemory(MemoryTrimmer.TrimPolicy policy) {
+            switch (policy) {
+                case SHRINK:
+                    trimToSize(budget / 2);
+                    break;
 
-        private final PullListFragment parent;
+                case DROP_OFFSCREEN:
+                    final Iterator<RetainedSlot> iterator = slots.values().iterator();
+                    while (iterator.hasNext()) {
+                        final RetainedSlot slot = iterator.next();
+                        if (!slot.attached && !slot.hasPendingTask()) {
+                            slot.clear();
+                            iterator.remove();
+                        }
+                    }
+                    break;
 
-        public CustomListView(PullListFragment parent) {
-            super(parent.getActivity());
-            this.parent = parent;
-        }
+                case DROP_ALL:
+                    trimToSize(0);
+                    break;
 
-        @Override
-        protected void onOverScrolled(int scrollX, int scrollY, boolean clampedX, boolean clampedY) {
-            super.onOverScrolled(scrollX, scrollY, clampedX, clampedY);
-            if (parent.scroller != null) {
-                parent.scroller.onOverScrolled(clampedY);
+                default:
+                    break;
             }
         }
 
-        @Override
-        public boolean onTouchEvent(MotionEvent e) {
-            if (parent.scroller != null) {
-                return parent.scroller.onTouchEvent(e) || super.onTouchEvent(e);
-            } else {
-                return super.onTouchEvent(e);
+        private RetainedSlot attach(String key) {
+            RetainedSlot slot = slots.get(key);
+            if (slot == null) {
+                slot = new RetainedSlot(key);
+                slots.put(key, slot);
             }
-        }
-    }
+            slot.attached = true;
 
-    private static class RetainedFragment extends Fragment {
-
-        public static final String TAG = RetainedFragment.class.getName();
+            return slot;
+        }
 
-        private ListAdapter adapter;
+        private void detach(RetainedSlot slot) {
+            slot.attached = false;
+            trimToBudget();
+        }
 
-        public RetainedFragment() {
-            adapter = null;
+        private void release(RetainedSlot slot) {
+            slot.attached = false;
+            slot.clear();
+            slots.remove(slot.key);
         }
 
-        @Override
-        public void onCreate(Bundle savedInstanceState) {
-            super.onCreate(savedInstanceState);
-            setRetainInstance(true);
+        private void setBudget(int budget) {
+            this.budget = budget;
+            trimToBudget();
         }
 
-        public ListAdapter getAdapter() {
-            return adapter;
+        private void trimToBudget() {
+            trimToSize(budget);
         }
 
-        public void setAdapter(ListAdapter adapter) {
-            this.adapter = adapter;
+        /**
+         * Drops retained data until the total size fits. Slots which are not attached are dropped
+         * first, in least recently used order, then the objects retained by attached slots. The
+         * adapters of attached slots are in use by their lists, and slots with a pending refresh
+         * task are waiting for theirs to reattach, so neither are ever dropped
+         *
+         * @param maxBytes The maximum total size
+         */
+
+        private void trimToSize(int maxBytes) {
+            long size = 0L;
+            for (RetainedSlot slot : slots.values()) {
+                size += slot.getAdapterBytes() + slot.getExtrasBytes();
+            }
+
+            final Iterator<RetainedSlot> detached = slots.values().iterator();
+            while (size > maxBytes && detached.hasNext()) {
+                final RetainedSlot slot = detached.next();
+                if (!slot.attached && !slot.hasPendingTask()) {
+                    size -= slot.getAdapterBytes() + slot.getExtrasBytes();
+                    slot.clear();
+                    detached.remove();
+                }
+            }
+
+            final Iterator<RetainedSlot> attached = slots.values().iterator();
+            while (size > maxBytes && attached.hasNext()) {
+                final RetainedSlot slot = attached.next();
+                size -= slot.getExtrasBytes();
+                slot.extras.clear();
+            }
         }
     }
 
     /**
-     * A convenient class to manage default pulled view behaviour
+     * A convenient class to manage default pulled view behaviour. The status texts are drawn
+     * directly from prebuilt text layouts, and the view measures to a fixed height, so a state
+     * change during the pull only invalidates the view. The status indicator is the only child
      */
 
-    public static class DefaultPulledView extends FrameLayout implements PullStateListener {
+    public static class DefaultPulledView extends ViewGroup implements PullStateListener,
+            Suspendable {
+
+        /** the indices of the status text layouts */
+        private static final int TEXT_PULL_STARTED = 0;
+        private static final int TEXT_PULL_THRESHOLD = 1;
+        private static final int TEXT_REFRESHING = 2;
+        private static final int TEXT_REFRESH_SUCCESS = 3;
+        private static final int TEXT_REFRESH_FAILED = 4;
 
         private PullStateListener listener;
 
-        private final LinearLayout layout;
-        private final TextView statusText;
+        /** if true, the status view was hidden to stop its animation */
+        private boolean statusSuspended;
+
+        /** if true, the status view is a placeholder for the default ProgressBar */
+        private boolean statusPlaceholder;
+
         private View status;
 
-        private String pullStartedText;
-        private String pullThresholdText;
-        private String refreshingText;
-        private String refreshSuccessText;
-        private String refreshFailedText;
+        /** the status texts and the layouts they are drawn from */
+        private final String[] texts;
+        private final StaticLayout[] textLayouts;
+        private final TextPaint textPaint;
+        private int textLayoutWidth;
+        private int currentText;
+
+        /** the background of the area holding the status view and text */
+        private final Paint innerPaint;
+        private boolean hasInnerBackground;
+
+        /** dimensions in pixels */
+        private final int statusSize;
+        private final int paddingLarge;
+        private final int paddingSmall;
+        private final int textIndent;
 
         public DefaultPulledView(PullListFragment parent, boolean isTop) {
             super(parent.getActivity());
@@ -1212,48 +3119,45 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
             final Context context = getContext();
             final float logicalDensity = context.getResources().getDisplayMetrics().density;
 
-            final int recommendedSize = (int)(48.0f * logicalDensity + 0.5f);
-            final int paddingLarge = (int)(32.0f * logicalDensity + 0.5f);
-            final int paddingSmall = (int)(8.0f * logicalDensity + 0.5f);
+            statusSize = (int)(48.0f * logicalDensity + 0.5f);
+            paddingLarge = (int)(32.0f * logicalDensity + 0.5f);
+            paddingSmall = (int)(8.0f * logicalDensity + 0.5f);
+            textIndent = (int)(8.0f * logicalDensity + 0.5f);
             this.setLayoutParams(new LinearLayout.LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.WRAP_CONTENT));
             if (isTop) {
                 this.setPadding(0, paddingLarge, 0, 0);
             } else {
                 this.setPadding(0, 0, 0, paddingLarge);
             }
-
-            layout = new LinearLayout(context);
-            layout.setLayoutParams(new LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.WRAP_CONTENT));
-            layout.setPadding(paddingLarge, paddingSmall, paddingSmall, paddingSmall);
-            layout.setGravity(Gravity.LEFT | Gravity.CENTER_VERTICAL);
-            layout.setOrientation(LinearLayout.HORIZONTAL);
-
-            ProgressBar progressBar = new ProgressBar(context);
-            progressBar.setLayoutParams(new LinearLayout.LayoutParams(recommendedSize, recommendedSize));
-            progressBar.setIndeterminate(true);
-            progressBar.setVisibility(INVISIBLE);
-            status = progressBar;
-
-            final int textIndent = (int)(8.0f * logicalDensity + 0.5f);
-            statusText = new TextView(context);
-            statusText.setLayoutParams(new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT));
-            statusText.setPadding(textIndent, 0, 0, 0);
-            statusText.setTextSize(18.0f);
-            statusText.setText("You should not be able to see this text");
-            statusText.setEllipsize(TextUtils.TruncateAt.END);
-            statusText.setLines(1);
-            statusText.setSingleLine();
-
-//            this.addView(progressBar);
-            layout.addView(status);
-            layout.addView(statusText);
-            this.addView(layout);
-
-            pullStartedText = "Pull to refresh";
-            pullThresholdText = "Release to refresh";
-            refreshingText = "Refreshing";
-            refreshSuccessText = "Refresh complete";
-            refreshFailedText = "Refresh failed";
+            setWillNotDraw(false);
+
+            // reserves the space of the ProgressBar, which is only created for the first refresh
+            final View placeholder = new View(context);
+            placeholder.setLayoutParams(new LayoutParams(statusSize, statusSize));
+            placeholder.setVisibility(INVISIBLE);
+            status = placeholder;
+            statusPlaceholder = true;
+            addView(status);
+
+            textPaint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+            textPaint.density = logicalDensity;
+            textPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 18.0f,
+                    context.getResources().getDisplayMetrics()));
+            textPaint.setColor(getDefaultTextColor(context));
+
+            innerPaint = new Paint();
+            hasInnerBackground = false;
+
+            texts = new String[] {
+                    "Pull to refresh",
+                    "Release to refresh",
+                    "Refreshing",
+                    "Refresh complete",
+                    "Refresh failed"
+            };
+            textLayouts = new StaticLayout[texts.length];
+            textLayoutWidth = -1;
+            currentText = TEXT_PULL_STARTED;
 
             listener = new PullStateListener() {
                 @Override
@@ -1268,12 +3172,16 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
 
                 @Override
                 public void onRefreshRequest() {
+                    if (statusPlaceholder) {
+                        replacePlaceholder();
+                    }
                     status.setVisibility(VISIBLE);
                 }
 
                 @Override
                 public void onRequestComplete(boolean success) {
                     status.setVisibility(INVISIBLE);
+                    statusSuspended = false;
                 }
 
                 @Override
@@ -1284,13 +3192,32 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
         }
 
         /**
-         * Set the background color for the embedded layout object
+         * Returns the primary text color of the theme, the color a TextView would use by default
+         *
+         * @param context The context holding the theme
+         * @return The text color
+         */
+
+        private static int getDefaultTextColor(Context context) {
+            final TypedArray a = context.obtainStyledAttributes(
+                    new int[] { android.R.attr.textColorPrimary });
+            try {
+                return a.getColor(0, 0xff000000);
+            } finally {
+                a.recycle();
+            }
+        }
+
+        /**
+         * Set the background color for the area holding the status view and text
          *
          * @param color The new background color
          */
 
         public void setInnerBackgroundColor(int color) {
-            layout.setBackgroundColor(color);
+            innerPaint.setColor(color);
+            hasInnerBackground = true;
+            invalidate();
         }
 
         /**
@@ -1301,7 +3228,15 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
          */
 
         public void setTextSize(int units, float size) {
-            statusText.setTextSize(units, size);
+            final float px = TypedValue.applyDimension(units, size,
+                    getContext().getResources().getDisplayMetrics());
+            if (px != textPaint.getTextSize()) {
+                textPaint.setTextSize(px);
+                buildTextLayouts();
+
+                // the only setter which changes the measured height
+                requestLayout();
+            }
         }
 
         /**
@@ -1311,7 +3246,7 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
          */
 
         public float getTextSize() {
-            return statusText.getTextSize();
+            return textPaint.getTextSize();
         }
 
         /**
@@ -1321,7 +3256,9 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
          */
 
         public void setTextColor(int color) {
-            statusText.setTextColor(color);
+            // the layouts share the paint, the color is read when they are drawn
+            textPaint.setColor(color);
+            invalidate();
         }
 
         /**
@@ -1331,7 +3268,7 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
          */
 
         public int getTextColor() {
-            return statusText.getCurrentTextColor();
+            return textPaint.getColor();
         }
 
         /**
@@ -1341,50 +3278,213 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
          */
 
         public void setPullStartedText(String text) {
-            pullStartedText = text;
+            setText(TEXT_PULL_STARTED, text);
         }
 
         public String getPullStartedText() {
-            return pullStartedText;
+            return texts[TEXT_PULL_STARTED];
         }
 
         public void setPullThresholdText(String text) {
-            pullThresholdText = text;
+            setText(TEXT_PULL_THRESHOLD, text);
         }
 
         public String getPullThresholdText() {
-            return pullThresholdText;
+            return texts[TEXT_PULL_THRESHOLD];
         }
 
         public void setRefreshingText(String text) {
-            refreshingText = text;
+            setText(TEXT_REFRESHING, text);
         }
 
         public String getRefreshingText() {
-            return refreshingText;
+            return texts[TEXT_REFRESHING];
         }
 
         public void setRefreshSuccessText(String text) {
-            refreshSuccessText = text;
+            setText(TEXT_REFRESH_SUCCESS, text);
         }
 
         public String getRefreshSuccessText() {
-            return refreshSuccessText;
+            return texts[TEXT_REFRESH_SUCCESS];
         }
 
         public void setRefreshFailedText(String text) {
-            refreshFailedText = text;
+            setText(TEXT_REFRESH_FAILED, text);
         }
 
         public String getRefreshFailedText() {
-            return refreshFailedText;
+            return texts[TEXT_REFRESH_FAILED];
+        }
+
+        private void setText(int index, String text) {
+            texts[index] = text;
+            textLayouts[index] = buildTextLayout(index);
+            if (index == currentText) {
+                invalidate();
+            }
         }
 
         public void setStatusView(View view, PullStateListener listener) {
-            layout.removeView(status);
+            removeView(status);
             status = view;
-            layout.addView(view, 0);
+            addView(view, 0);
             this.listener = listener;
+            statusSuspended = false;
+            statusPlaceholder = false;
+        }
+
+        /**
+         * Replaces the placeholder with the default indeterminate ProgressBar
+         */
+
+        private void replacePlaceholder() {
+            final ProgressBar progressBar = new ProgressBar(getContext());
+            progressBar.setLayoutParams(status.getLayoutParams());
+            progressBar.setIndeterminate(true);
+            progressBar.setVisibility(INVISIBLE);
+
+            final int index = indexOfChild(status);
+            removeViewAt(index);
+            addView(progressBar, index);
+            status = progressBar;
+            statusPlaceholder = false;
+        }
+
+        /**
+         * Suspends the animation of the status view. Views implementing Suspendable are paused,
+         * any other visible view, such as the default ProgressBar, is hidden until resumed
+         */
+
+        @Override
+        public void suspendAnimations() {
+            if (status instanceof Suspendable) {
+                ((Suspendable)status).suspendAnimations();
+            } else if (status.getVisibility() == VISIBLE) {
+                status.setVisibility(INVISIBLE);
+                statusSuspended = true;
+            }
+        }
+
+        @Override
+        public void resumeAnimations() {
+            if (status instanceof Suspendable) {
+                ((Suspendable)status).resumeAnimations();
+            } else if (statusSuspended) {
+                status.setVisibility(VISIBLE);
+                statusSuspended = false;
+            }
+        }
+
+        @Override
+        protected LayoutParams generateDefaultLayoutParams() {
+            return new LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT);
+        }
+
+        /**
+         * Measures to a fixed height, which depends only on the text size and the status view,
+         * never on the current status text
+         */
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            final int width = MeasureSpec.getSize(widthMeasureSpec);
+            final LayoutParams params = status.getLayoutParams();
+            final int available = Math.max(0, width - paddingLarge - paddingSmall);
+            status.measure(
+                    getChildMeasureSpec(MeasureSpec.makeMeasureSpec(available, MeasureSpec.AT_MOST),
+                            0, params != null ? params.width : statusSize),
+                    getChildMeasureSpec(MeasureSpec.makeMeasureSpec(statusSize, MeasureSpec.AT_MOST),
+                            0, params != null ? params.height : statusSize));
+
+            final int height = getPaddingTop() + getPaddingBottom() + 2 * paddingSmall +
+                    getRowHeight();
+            setMeasuredDimension(resolveSize(width, widthMeasureSpec),
+                    resolveSize(height, heightMeasureSpec));
+        }
+
+        @Override
+        protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+            final int rowTop = getPaddingTop() + paddingSmall;
+            final int statusTop = rowTop + (getRowHeight() - status.getMeasuredHeight()) / 2;
+            status.layout(paddingLarge, statusTop, paddingLarge + status.getMeasuredWidth(),
+                    statusTop + status.getMeasuredHeight());
+
+            final int textWidth = Math.max(0, right - left - getTextLeft() - paddingSmall);
+            if (textWidth != textLayoutWidth) {
+                textLayoutWidth = textWidth;
+                buildTextLayouts();
+            }
+        }
+
+        @Override
+        protected void onDraw(Canvas canvas) {
+            if (hasInnerBackground) {
+                canvas.drawRect(0, getPaddingTop(), getWidth(), getHeight() - getPaddingBottom(),
+                        innerPaint);
+            }
+
+            final StaticLayout textLayout = textLayouts[currentText];
+            if (textLayout != null) {
+                final int rowTop = getPaddingTop() + paddingSmall;
+                canvas.save();
+                canvas.translate(getTextLeft(), rowTop + (getRowHeight() - textLayout.getHeight()) / 2);
+                textLayout.draw(canvas);
+                canvas.restore();
+            }
+        }
+
+        /**
+         * Returns the height of the row holding the status view and text
+         *
+         * @return The row height in pixels
+         */
+
+        private int getRowHeight() {
+            final Paint.FontMetricsInt metrics = textPaint.getFontMetricsInt();
+            return Math.max(Math.max(statusSize, status.getMeasuredHeight()),
+                    metrics.descent - metrics.ascent);
+        }
+
+        private int getTextLeft() {
+            return paddingLarge + Math.max(statusSize, status.getMeasuredWidth()) + textIndent;
+        }
+
+        /**
+         * Builds the single line layout of a status text for the current width
+         *
+         * @param index The index of the status text
+         * @return The text layout, or null if the width is not known yet
+         */
+
+        private StaticLayout buildTextLayout(int index) {
+            if (textLayoutWidth < 0) {
+                return null;
+            }
+
+            final CharSequence text = TextUtils.ellipsize(texts[index] != null ? texts[index] : "",
+                    textPaint, textLayoutWidth, TextUtils.TruncateAt.END);
+            return new StaticLayout(text, textPaint, textLayoutWidth,
+                    Layout.Alignment.ALIGN_NORMAL, 1.0f, 0.0f, false);
+        }
+
+        /**
+         * Rebuilds every status text layout, when the width or text size changes. Only done from
+         * layout and the setters, so a state change mid-gesture never builds a layout in onDraw
+         */
+
+        private void buildTextLayouts() {
+            for (int i = 0; i < textLayouts.length; i++) {
+                textLayouts[i] = buildTextLayout(i);
+            }
+            invalidate();
+        }
+
+        private void showText(int index) {
+            if (currentText != index) {
+                currentText = index;
+                invalidate();
+            }
         }
 
         /**
@@ -1393,7 +3493,7 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
 
         @Override
         public void onPullStarted() {
-            statusText.setText(pullStartedText);
+            showText(TEXT_PULL_STARTED);
             listener.onPullStarted();
         }
 
@@ -1406,11 +3506,7 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
 
         @Override
         public void onPullThreshold(boolean aboveThreshold) {
-            if (aboveThreshold) {
-                statusText.setText(pullThresholdText);
-            } else {
-                statusText.setText(pullStartedText);
-            }
+            showText(aboveThreshold ? TEXT_PULL_THRESHOLD : TEXT_PULL_STARTED);
             listener.onPullThreshold(aboveThreshold);
         }
 
@@ -1420,7 +3516,7 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
 
         @Override
         public void onRefreshRequest() {
-            statusText.setText(refreshingText);
+            showText(TEXT_REFRESHING);
             listener.onRefreshRequest();
         }
 
@@ -1432,11 +3528,7 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
 
         @Override
         public void onRequestComplete(boolean success) {
-            if (success) {
-                statusText.setText(refreshSuccessText);
-            } else {
-                statusText.setText(refreshFailedText);
-            }
+            showText(success ? TEXT_REFRESH_SUCCESS : TEXT_REFRESH_FAILED);
             listener.onRequestComplete(success);
         }
 
@@ -1477,6 +3569,13 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
         private float easing;
         private long previousTime;
 
+        /** if true, the release animation is paused */
+        private boolean suspended;
+
+        /** the released state to move to once the request complete delay has passed */
+        private PullState pendingRelease;
+        private final Runnable releaseRunnable;
+
         /** specific to top pull behaviour */
         private boolean allowTopPull;
         private boolean topPullEnabled;
@@ -1523,6 +3622,18 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
             easing = 0.7f;
             delay = 1000;
             pullState = PullState.NORMAL;
+            pendingRelease = null;
+
+            releaseRunnable = new Runnable() {
+                @Override
+                public void run() {
+                    final PullState releasedState = pendingRelease;
+                    pendingRelease = null;
+                    if (releasedState != null) {
+                        setPullState(releasedState);
+                    }
+                }
+            };
         }
 
         /**
@@ -1634,7 +3745,9 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
         public void onScroll(AbsListView absListView, int firstVisibleItem, int visibleItemCount,
                              int totalItemCount) {
             allowTopPull = (firstVisibleItem == 0);
-            allowBottomPull = (firstVisibleItem + visibleItemCount) == totalItemCount;
+            // the real end of the list has not been reached while results are still pending
+            allowBottomPull = (firstVisibleItem + visibleItemCount) == totalItemCount &&
+                    !parent.batchApplier.isPending();
         }
 
         /**
@@ -1692,8 +3805,14 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
          */
 
         private void onTopPulledViewLayout(final View topPulledView) {
-            topMaxLength = (float)topPulledView.getHeight();
-            topContentSize = topPulledView.getHeight() - topPulledView.getPaddingTop();
+            // there is no view while the top pull is disabled and the default view was not created
+            if (topPulledView == null) {
+                topMaxLength = 0.0f;
+                topContentSize = 0;
+            } else {
+                topMaxLength = (float)topPulledView.getHeight();
+                topContentSize = topPulledView.getHeight() - topPulledView.getPaddingTop();
+            }
             setPullState(pullState, false, true);
         }
 
@@ -1704,8 +3823,13 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
          */
 
         private void onBottomPulledViewLayout(final View bottomPulledView) {
-            bottomMaxLength = (float)bottomPulledView.getHeight();
-            bottomContentSize = bottomPulledView.getHeight() - bottomPulledView.getPaddingBottom();
+            if (bottomPulledView == null) {
+                bottomMaxLength = 0.0f;
+                bottomContentSize = 0;
+            } else {
+                bottomMaxLength = (float)bottomPulledView.getHeight();
+                bottomContentSize = bottomPulledView.getHeight() - bottomPulledView.getPaddingBottom();
+            }
             setPullState(pullState, false, true);
         }
 
@@ -1732,7 +3856,7 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
                     break;
 
                 default:
-                    Log.wtf(TAG, "[recomputeTravel] unhandled pullState: " + pullState.name());
+                    Diagnostics.error(TAG, "[recomputeTravel] unhandled pullState: " + pullState.name());
                     break;
             }
         }
@@ -1759,6 +3883,12 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
                                   final boolean fromLayout) {
             final PullState oldPullState = this.pullState;
             this.pullState = pullState;
+            Diagnostics.event(Diagnostics.EVENT_PULL_STATE, pullState.ordinal());
+
+            // a pull or a refresh started by startRefresh, both are measured from here
+            if (oldPullState == PullState.NORMAL && pullState != PullState.NORMAL) {
+                parent.startPullMetrics();
+            }
 
             if (fromRestoredState) {
                 switch (pullState) {
@@ -1781,6 +3911,7 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
                         case PULL_TOP:
                         case PULL_TOP_RELEASED:
                             if (!fromLayout) {
+                                parent.deliverPullMetrics(true);
                                 parent.onPullEnd(oldPullState, true, fromRestoredState);
                             }
                             break;
@@ -1788,6 +3919,7 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
                         case PULL_BOTTOM:
                         case PULL_BOTTOM_RELEASED:
                             if (!fromLayout) {
+                                parent.deliverPullMetrics(false);
                                 parent.onPullEnd(oldPullState, false, fromRestoredState);
                             }
                             break;
@@ -1797,7 +3929,7 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
                             break;
 
                         default:
-                            Log.wtf(TAG, "[setPullState] Illegal pullState: " + oldPullState.name() + " before NORMAL");
+                            Diagnostics.error(TAG, "[setPullState] Illegal pullState: " + oldPullState.name() + " before NORMAL");
                             break;
                     }
                     parent.undoPullOffset();
@@ -1856,7 +3988,7 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
                     totalOffset = topContentSize;
                     recomputeTravel();
                     if (!fromLayout) {
-                        parent.onRefreshRequest(oldPullState, true, fromRestoredState);
+                        parent.dispatchRefreshRequest(oldPullState, true, fromRestoredState);
                     }
                     break;
 
@@ -1867,17 +3999,43 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
                     totalOffset = -bottomContentSize;
                     recomputeTravel();
                     if (!fromLayout) {
-                        parent.onRefreshRequest(oldPullState, false, fromRestoredState);
+                        parent.dispatchRefreshRequest(oldPullState, false, fromRestoredState);
                     }
                     break;
 
                 default:
-                    Log.d(TAG, "[setPullState] Unhandled pullState: " + pullState.name());
+                    // the remaining states need no handling
                     break;
             }
+        }
+
+        /**
+         * Returns true if a refresh request is in progress
+         *
+         * @return True if the scroller is waiting for the request to complete
+         */
+
+        private boolean isWaiting() {
+            return pullState == PullState.PULL_TOP_WAITING ||
+                    pullState == PullState.PULL_BOTTOM_WAITING;
+        }
+
+        /**
+         * Moves straight to the waiting state, if no pull is in progress
+         *
+         * @param isTop If true, the top view is refreshed
+         */
+
+        private void startRefresh(boolean isTop) {
+            if (pullState != PullState.NORMAL) {
+                return;
+            }
 
-            // for debugging
-//            Log.d(TAG, pullState.name() + " current offset = " + totalOffset);
+            if (isTop && topPullEnabled) {
+                setPullState(PullState.PULL_TOP_WAITING);
+            } else if (!isTop && bottomPullEnabled) {
+                setPullState(PullState.PULL_BOTTOM_WAITING);
+            }
         }
 
         /**
@@ -1890,30 +4048,35 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
             switch (pullState) {
                 case PULL_TOP_WAITING:
                     parent.onRequestComplete(success, true);
-                    PullListFragment.handler.postDelayed(new Runnable() {
-                        @Override
-                        public void run() {
-                            setPullState(PullState.PULL_TOP_RELEASED);
-                        }
-                    }, delay);
+                    scheduleRelease(PullState.PULL_TOP_RELEASED);
                     break;
 
                 case PULL_BOTTOM_WAITING:
                     parent.onRequestComplete(success, false);
-                    PullListFragment.handler.postDelayed(new Runnable() {
-                        @Override
-                        public void run() {
-                            setPullState(PullState.PULL_BOTTOM_RELEASED);
-                        }
-                    }, delay);
+                    scheduleRelease(PullState.PULL_BOTTOM_RELEASED);
                     break;
 
                 default:
-                    Log.wtf(TAG, "[.onRequestComplete] Illegal scrolling pullState: " + pullState.name());
+                    Diagnostics.error(TAG, "[.onRequestComplete] Illegal scrolling pullState: " + pullState.name());
                     break;
             }
         }
 
+        /**
+         * Releases the pulled view after the request complete delay, unless the scroller is
+         * suspended, in which case the release is scheduled again when it resumes
+         *
+         * @param releasedState The released state to move to
+         */
+
+        private void scheduleRelease(PullState releasedState) {
+            pendingRelease = releasedState;
+            parent.scheduler.removeCallbacks(releaseRunnable);
+            if (!suspended) {
+                parent.scheduler.postDelayed(releaseRunnable, delay);
+            }
+        }
+
         /**
          * Responds to touch events
          *
@@ -2070,8 +4233,44 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
 
         private void start() {
             stop();
+            if (suspended) {
+                // picked up again by resume
+                return;
+            }
             previousTime = System.currentTimeMillis();
-            PullListFragment.handler.post(this);
+            parent.scheduler.post(this);
+        }
+
+        /**
+         * Pauses the release animation, if any
+         */
+
+        private void suspend() {
+            suspended = true;
+            stop();
+            parent.scheduler.removeCallbacks(releaseRunnable);
+        }
+
+        /**
+         * Resumes the release animation from the current offset
+         */
+
+        private void resume() {
+            suspended = false;
+            if (pendingRelease != null) {
+                parent.scheduler.postDelayed(releaseRunnable, delay);
+            }
+            switch (pullState) {
+                case PULL_TOP_RELEASED:
+                case PULL_TOP_THRESHOLD_RELEASED:
+                case PULL_BOTTOM_RELEASED:
+                case PULL_BOTTOM_THRESHOLD_RELEASED:
+                    start();
+                    break;
+
+                default:
+                    break;
+            }
         }
 
         /**
@@ -2079,7 +4278,7 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
          */
 
         private void stop() {
-            PullListFragment.handler.removeCallbacks(this);
+            parent.scheduler.removeCallbacks(this);
             previousTime = 0L;
         }
 
@@ -2093,14 +4292,24 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
             final long now = System.currentTimeMillis();
             final int diff = (int)(now - previousTime);
             final int num = Math.min(diff / ANIMATION_WAIT, 10);
+            final long requestTime = parent.pullMetricsListener != null ? System.nanoTime() : 0L;
+            final int startOffset = parent.accumulatedOffset;
+            if (parent.pullMetricsListener != null) {
+                parent.pullMetrics.recordAnimationRun(num);
+            }
             for (int i = 0; i < num; i++) {
                 if (!animate()) {
                     return;
                 }
             }
 
+            // the frame of this step was needed from the start of the run
+            if (parent.accumulatedOffset != startOffset) {
+                parent.requestFrame(requestTime);
+            }
+
             previousTime = now - (long)(diff % ANIMATION_WAIT);
-            PullListFragment.handler.postDelayed(this, ANIMATION_WAIT);
+            parent.scheduler.postDelayed(this, ANIMATION_WAIT);
         }
 
         /**
@@ -2152,7 +4361,7 @@ public class PullListFragment extends Fragment implements AbsListView.OnScrollLi
                     break;
 
                 default:
-                    Log.wtf(TAG, "[run] Illegal pullState in running method: " + pullState.name());
+                    Diagnostics.error(TAG, "[run] Illegal pullState in running method: " + pullState.name());
                     break;
             }
 
@@ -0,0 +1,213 @@
+package com.github.yggie.pulltorefresh;
+
+import java.util.Arrays;
+
+/**
+ * Frame statistics of a single pull gesture, from the start of the drag until the pulled view is
+ * back in place. Delivered to a {@link PullListFragment.PullMetricsListener} when the pull ends.
+ *
+ * A frame time is the time from the first request for a new frame, a change of the pull offset by
+ * the drag or a step of the release animation, until the layout draws it. Frames taking longer
+ * than the budget are counted as janky. Only requested frames are timed, so a finger held still,
+ * a refresh in progress without movement, and redraws of the status view alone add nothing. The
+ * object is reused for every pull, listeners must copy the values they want to keep.
+ */
+
+public final class PullMetrics {
+
+    /** the number of frame times kept for the percentiles, below the size where sorting allocates */
+    private static final int CAPACITY = 256;
+
+    /** the frame times of the pull in microseconds, the most recent ones if there were more */
+    private final int[] frameTimes = new int[CAPACITY];
+    private final int[] sorted = new int[CAPACITY];
+    private int frameCount;
+
+    private int frameBudget;
+    private int jankyFrameCount;
+
+    /** release animation steps */
+    private int animationRunCount;
+    private int catchUpRunCount;
+    private int maxCatchUpSteps;
+
+    private boolean isTop;
+    private long startTime;
+    private long duration;
+
+    /** the summary, computed when the pull ends */
+    private int p50;
+    private int p90;
+    private int p99;
+
+    PullMetrics() {
+        frameBudget = 24000;
+        reset();
+    }
+
+    void setFrameBudget(int micros) {
+        frameBudget = micros;
+    }
+
+    void reset() {
+        frameCount = 0;
+        jankyFrameCount = 0;
+        animationRunCount = 0;
+        catchUpRunCount = 0;
+        maxCatchUpSteps = 0;
+        startTime = 0L;
+        duration = 0L;
+        p50 = 0;
+        p90 = 0;
+        p99 = 0;
+    }
+
+    /**
+     * Records a drawn frame
+     *
+     * @param now The time the frame was drawn, in nanoseconds
+     * @param requestTime The time the frame was first requested, in nanoseconds
+     */
+
+    void recordFrame(long now, long requestTime) {
+        if (startTime == 0L) {
+            startTime = requestTime;
+        }
+
+        final int micros = (int)Math.min((now - requestTime) / 1000L, Integer.MAX_VALUE);
+        frameTimes[frameCount % CAPACITY] = micros;
+        frameCount++;
+        if (micros > frameBudget) {
+            jankyFrameCount++;
+        }
+        duration = now - startTime;
+    }
+
+    /**
+     * Records a run of the release animation
+     *
+     * @param steps The number of animation steps the run had to take
+     */
+
+    void recordAnimationRun(int steps) {
+        animationRunCount++;
+        if (steps > 1) {
+            catchUpRunCount++;
+        }
+        maxCatchUpSteps = Math.max(maxCatchUpSteps, steps);
+    }
+
+    /**
+     * Computes the summary once the pull has ended
+     *
+     * @param isTop If true, the top view was pulled
+     */
+
+    void finish(boolean isTop) {
+        this.isTop = isTop;
+
+        final int count = Math.min(frameCount, CAPACITY);
+        if (count == 0) {
+            return;
+        }
+
+        System.arraycopy(frameTimes, 0, sorted, 0, count);
+        Arrays.sort(sorted, 0, count);
+        p50 = percentile(count, 50);
+        p90 = percentile(count, 90);
+        p99 = percentile(count, 99);
+    }
+
+    private int percentile(int count, int percent) {
+        // nearest rank
+        final int rank = (percent * count + 99) / 100;
+        return sorted[Math.max(rank - 1, 0)];
+    }
+
+    public boolean isTop() {
+        return isTop;
+    }
+
+    /**
+     * Returns the number of requested frames drawn during the pull
+     *
+     * @return The frame count
+     */
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Returns the number of frames drawn longer than the frame budget after they were requested
+     *
+     * @return The janky frame count
+     */
+
+    public int getJankyFrameCount() {
+        return jankyFrameCount;
+    }
+
+    /**
+     * Returns the median frame time. The percentiles are computed over the last 256 frames
+     *
+     * @return The median frame time in milliseconds
+     */
+
+    public float getFrameTimeP50() {
+        return p50 / 1000.0f;
+    }
+
+    public float getFrameTimeP90() {
+        return p90 / 1000.0f;
+    }
+
+    public float getFrameTimeP99() {
+        return p99 / 1000.0f;
+    }
+
+    /**
+     * Returns the budget above which a frame is counted as janky
+     *
+     * @return The frame budget in milliseconds
+     */
+
+    public float getFrameBudget() {
+        return frameBudget / 1000.0f;
+    }
+
+    /**
+     * Returns the number of runs of the release animation
+     *
+     * @return The run count
+     */
+
+    public int getAnimationRunCount() {
+        return animationRunCount;
+    }
+
+    /**
+     * Returns the number of release animation runs which had to catch up on more than one step,
+     * because they were posted late
+     *
+     * @return The catch up run count
+     */
+
+    public int getCatchUpRunCount() {
+        return catchUpRunCount;
+    }
+
+    public int getMaxCatchUpSteps() {
+        return maxCatchUpSteps;
+    }
+
+    /**
+     * Returns the time from the first to the last frame of the pull
+     *
+     * @return The duration in milliseconds
+     */
+
+    public long getDuration() {
+        return duration / 1000000L;
+    }
+}
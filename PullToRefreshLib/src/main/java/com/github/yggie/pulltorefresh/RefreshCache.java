@@ -0,0 +1,504 @@
+package com.github.yggie.pulltorefresh;
+
+import android.support.v4.util.LruCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A two-tier cache for the pages returned by refresh requests, keyed by source and cursor. The
+ * first tier keeps decoded pages in a size-bounded in-memory LRU, the second keeps serialized
+ * pages on disk with LRU eviction by total bytes. Each entry carries freshness metadata, so a
+ * repeated pull or a re-created fragment can be served from the cache or revalidated cheaply.
+ *
+ * Methods which may touch the disk should be called from a background thread, only
+ * {@link #getFromMemory(String, String)} is intended for the UI thread. Register the cache with
+ * {@link MemoryTrimmer} to release the memory tier on memory pressure.
+ *
+ * @param <T> The type of the cached pages
+ */
+
+public class RefreshCache<T> implements MemoryTrimmer.Trimmable {
+
+    private static final String TAG = RefreshCache.class.getSimpleName();
+
+    private static final int MAGIC = 0x50545243;
+    private static final int VERSION = 2;
+
+    /** the extension used for the page files */
+    private static final String EXTENSION = ".page";
+
+    /**
+     * Converts pages to and from their serialized form, and estimates their size in memory
+     *
+     * @param <T> The type of the cached pages
+     */
+
+    public static interface PageCodec<T> {
+        public void write(T page, DataOutputStream out) throws IOException;
+        public T read(DataInputStream in) throws IOException;
+        public int sizeOf(T page);
+    }
+
+    /**
+     * A cached page along with its freshness metadata
+     *
+     * @param <T> The type of the cached pages
+     */
+
+    public static class Entry<T> {
+
+        private final T page;
+        private final long fetchedAt;
+        private final long maxAge;
+        private final String validator;
+
+        private Entry(T page, long fetchedAt, long maxAge, String validator) {
+            this.page = page;
+            this.fetchedAt = fetchedAt;
+            this.maxAge = maxAge;
+            this.validator = validator;
+        }
+
+        public T getPage() {
+            return page;
+        }
+
+        /**
+         * Returns the time the page was fetched or last revalidated
+         *
+         * @return The time in milliseconds, as given by System.currentTimeMillis
+         */
+
+        public long getFetchedAt() {
+            return fetchedAt;
+        }
+
+        public long getMaxAge() {
+            return maxAge;
+        }
+
+        /**
+         * Returns the validator of the page, e.g. an ETag or version, used for conditional
+         * requests
+         *
+         * @return The validator, or null if the source did not provide one
+         */
+
+        public String getValidator() {
+            return validator;
+        }
+
+        /**
+         * Returns true if the page can be used without contacting the source
+         *
+         * @param now The current time in milliseconds
+         * @return True if the page is still fresh
+         */
+
+        public boolean isFresh(long now) {
+            return now - fetchedAt < maxAge;
+        }
+    }
+
+    private final PageCodec<T> codec;
+    private final LruCache<String, Entry<T>> memory;
+
+    /** the disk tier, in access order. Maps each key to the size of its file */
+    private final File directory;
+    private final long maxDiskBytes;
+    private final LinkedHashMap<String, Long> diskEntries;
+    /** maps each page file name to the key stored in it, to detect colliding names */
+    private final HashMap<String, String> diskFiles;
+    private long diskBytes;
+    private boolean diskIndexed;
+
+    /**
+     * Creates a cache storing its second tier in the given directory
+     *
+     * @param directory The directory for the page files, used exclusively by this cache
+     * @param maxMemoryBytes The maximum size of the pages kept in memory, as given by the codec
+     * @param maxDiskBytes The maximum total size of the page files
+     * @param codec Serializes and measures the pages
+     */
+
+    public RefreshCache(File directory, int maxMemoryBytes, long maxDiskBytes, PageCodec<T> codec) {
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        this.codec = codec;
+        diskEntries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+        diskFiles = new HashMap<String, String>();
+        diskBytes = 0L;
+        diskIndexed = false;
+
+        memory = new LruCache<String, Entry<T>>(maxMemoryBytes) {
+            @Override
+            protected int sizeOf(String key, Entry<T> entry) {
+                return RefreshCache.this.codec.sizeOf(entry.page);
+            }
+        };
+    }
+
+    /**
+     * Returns the page for the given source and cursor from the memory tier only
+     *
+     * @param source Identifies the data source
+     * @param cursor Identifies the page within the source, may be null
+     * @return The cached entry, or null if it is not in memory
+     */
+
+    public Entry<T> getFromMemory(String source, String cursor) {
+        return memory.get(key(source, cursor));
+    }
+
+    /**
+     * Returns the page for the given source and cursor, loading it from disk if it is not in
+     * memory. Stale entries are returned as well, so they can be revalidated
+     *
+     * @param source Identifies the data source
+     * @param cursor Identifies the page within the source, may be null
+     * @return The cached entry, or null if it is not cached
+     */
+
+    public synchronized Entry<T> get(String source, String cursor) {
+        final String key = key(source, cursor);
+        Entry<T> entry = memory.get(key);
+        if (entry != null) {
+            return entry;
+        }
+
+        entry = readFromDisk(key);
+        if (entry != null) {
+            memory.put(key, entry);
+        }
+
+        return entry;
+    }
+
+    /**
+     * Stores a freshly fetched page in both tiers
+     *
+     * @param source Identifies the data source
+     * @param cursor Identifies the page within the source, may be null
+     * @param page The page to cache
+     * @param validator The validator of the page for conditional requests, may be null
+     * @param maxAge How long the page is considered fresh, in milliseconds
+     */
+
+    public synchronized void put(String source, String cursor, T page, String validator,
+                                 long maxAge) {
+        final String key = key(source, cursor);
+        final Entry<T> entry = new Entry<T>(page, System.currentTimeMillis(), maxAge, validator);
+        memory.put(key, entry);
+        writeToDisk(key, entry);
+    }
+
+    /**
+     * Marks a cached page as fresh again, e.g. after the source answered a conditional request
+     * with "not modified"
+     *
+     * @param source Identifies the data source
+     * @param cursor Identifies the page within the source, may be null
+     * @param maxAge How long the page is considered fresh, in milliseconds
+     * @return The revalidated entry, or null if the page is no longer cached
+     */
+
+    public synchronized Entry<T> revalidate(String source, String cursor, long maxAge) {
+        final Entry<T> entry = get(source, cursor);
+        if (entry == null) {
+            return null;
+        }
+
+        put(source, cursor, entry.page, entry.validator, maxAge);
+        return getFromMemory(source, cursor);
+    }
+
+    /**
+     * Removes a page from both tiers
+     *
+     * @param source Identifies the data source
+     * @param cursor Identifies the page within the source, may be null
+     */
+
+    public synchronized void remove(String source, String cursor) {
+        final String key = key(source, cursor);
+        memory.remove(key);
+        indexDisk();
+        removeFromDisk(key);
+    }
+
+    /**
+     * Drops every decoded page, the disk tier is kept
+     */
+
+    public void evictMemory() {
+        memory.evictAll();
+    }
+
+    /**
+     * Shrinks the memory tier to half its size, or drops it entirely under higher pressure. The
+     * disk tier is not affected
+     *
+     * @param policy What should be released
+     */
+
+    @Override
+    public void onTrimMemory(MemoryTrimmer.TrimPolicy policy) {
+        if (policy == MemoryTrimmer.TrimPolicy.SHRINK) {
+            memory.trimToSize(memory.maxSize() / 2);
+        } else if (policy != MemoryTrimmer.TrimPolicy.NONE) {
+            memory.evictAll();
+        }
+    }
+
+    /**
+     * Removes every page from both tiers
+     */
+
+    public synchronized void clear() {
+        memory.evictAll();
+        indexDisk();
+        for (String key : diskEntries.keySet()) {
+            fileFor(key).delete();
+        }
+        diskEntries.clear();
+        diskFiles.clear();
+        diskBytes = 0L;
+    }
+
+    /**
+     * Returns the total size of the page files
+     *
+     * @return The size in bytes
+     */
+
+    public synchronized long getDiskBytes() {
+        indexDisk();
+        return diskBytes;
+    }
+
+    public int getMemoryBytes() {
+        return memory.size();
+    }
+
+    private Entry<T> readFromDisk(String key) {
+        indexDisk();
+        if (!diskEntries.containsKey(key)) {
+            return null;
+        }
+
+        final File file = fileFor(key);
+        try {
+            final DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION || !key.equals(in.readUTF())) {
+                    throw new IOException("Invalid page file " + file);
+                }
+
+                final long fetchedAt = in.readLong();
+                final long maxAge = in.readLong();
+                final String validator = in.readBoolean() ? in.readUTF() : null;
+                final T page = codec.read(in);
+
+                // persists the access order across launches
+                file.setLastModified(System.currentTimeMillis());
+                return new Entry<T>(page, fetchedAt, maxAge, validator);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Diagnostics.warn(TAG, "[readFromDisk] Dropping unreadable page", e);
+            removeFromDisk(key);
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, Entry<T> entry) {
+        indexDisk();
+        final File file = fileFor(key);
+
+        // a different key with a colliding file name loses its page, it is overwritten below
+        final String owner = diskFiles.get(file.getName());
+        if (owner != null && !owner.equals(key)) {
+            removeFromDisk(owner);
+        }
+
+        final File temp = new File(directory, file.getName() + ".tmp");
+        try {
+            final DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(key);
+                out.writeLong(entry.fetchedAt);
+                out.writeLong(entry.maxAge);
+                out.writeBoolean(entry.validator != null);
+                if (entry.validator != null) {
+                    out.writeUTF(entry.validator);
+                }
+                codec.write(entry.page, out);
+            } finally {
+                out.close();
+            }
+
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+        } catch (IOException e) {
+            Diagnostics.warn(TAG, "[writeToDisk] Failed to write page", e);
+            temp.delete();
+            return;
+        }
+
+        final Long previous = diskEntries.put(key, file.length());
+        if (previous != null) {
+            diskBytes -= previous;
+        }
+        diskFiles.put(file.getName(), key);
+        diskBytes += file.length();
+        trimDisk();
+    }
+
+    /**
+     * Removes a key from the disk index and deletes its page file
+     *
+     * @param key The cache key
+     */
+
+    private void removeFromDisk(String key) {
+        final Long size = diskEntries.remove(key);
+        if (size == null) {
+            return;
+        }
+
+        final File file = fileFor(key);
+        diskFiles.remove(file.getName());
+        diskBytes -= size;
+        file.delete();
+    }
+
+    /**
+     * Deletes the least recently used page files until the disk tier fits its budget
+     */
+
+    private void trimDisk() {
+        final Iterator<Map.Entry<String, Long>> iterator = diskEntries.entrySet().iterator();
+        while (diskBytes > maxDiskBytes && iterator.hasNext()) {
+            final Map.Entry<String, Long> eldest = iterator.next();
+            final File file = fileFor(eldest.getKey());
+            diskFiles.remove(file.getName());
+            file.delete();
+            diskBytes -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Builds the disk index from the existing page files the first time the disk is used, in the
+     * order they were last used
+     */
+
+    private void indexDisk() {
+        if (diskIndexed) {
+            return;
+        }
+        diskIndexed = true;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Diagnostics.warn(TAG, "[indexDisk] Could not create " + directory, null);
+            return;
+        }
+
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                final long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+
+        for (File file : files) {
+            if (!file.getName().endsWith(EXTENSION)) {
+                // leftovers of interrupted writes
+                file.delete();
+                continue;
+            }
+
+            final String key = readKey(file);
+            if (key == null || !fileFor(key).getName().equals(file.getName())) {
+                // unreadable, written by an older version, or not named after its key
+                file.delete();
+            } else {
+                diskEntries.put(key, file.length());
+                diskFiles.put(file.getName(), key);
+                diskBytes += file.length();
+            }
+        }
+        trimDisk();
+    }
+
+    private static String readKey(File file) {
+        try {
+            final DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    return null;
+                }
+                return in.readUTF();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the page file for a key. Keys with colliding names share the file, only the key
+     * stored in its header is cached in it
+     *
+     * @param key The cache key
+     * @return The page file
+     */
+
+    private File fileFor(String key) {
+        long hash = 1125899906842597L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = 31 * hash + key.charAt(i);
+        }
+
+        return new File(directory, Long.toHexString(hash) + EXTENSION);
+    }
+
+    /**
+     * Returns the cache key for a source and cursor. Only a non-null cursor, even an empty one,
+     * adds a separator, so it never matches the key of the null cursor
+     *
+     * @param source Identifies the data source
+     * @param cursor Identifies the page within the source, may be null
+     * @return The cache key
+     */
+
+    private static String key(String source, String cursor) {
+        return cursor == null ? source : source + '\n' + cursor;
+    }
+}
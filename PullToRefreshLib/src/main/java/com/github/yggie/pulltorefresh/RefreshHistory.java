@@ -0,0 +1,151 @@
+package com.github.yggie.pulltorefresh;
+
+/**
+ * The refresh bookkeeping of a {@link PullListFragment}. Remembers the last successful refresh
+ * of each pulled view, consults the {@link RefreshPolicy} when a refresh is requested, and
+ * updates the history when the request completes. Plain Java, so it can be tested on the JVM,
+ * saving and restoring it is left to the fragment.
+ */
+
+final class RefreshHistory {
+
+    /**
+     * The last successful refresh of a pulled view
+     */
+
+    static final class Record {
+
+        private long time;
+        private String validator;
+        private long contentBytes;
+
+        /**
+         * Returns the time of the last successful refresh
+         *
+         * @return The time in milliseconds, or 0 if there was no refresh
+         */
+
+        long getTime() {
+            return time;
+        }
+
+        String getValidator() {
+            return validator;
+        }
+
+        long getContentBytes() {
+            return contentBytes;
+        }
+
+        void set(long time, String validator, long contentBytes) {
+            this.time = time;
+            this.validator = validator;
+            this.contentBytes = contentBytes;
+        }
+    }
+
+    private final Record top = new Record();
+    private final Record bottom = new Record();
+
+    /** the refresh request in progress */
+    private RefreshPolicy.Decision decision = RefreshPolicy.Decision.FULL;
+    private boolean isTop = true;
+
+    /** the validator and size of the content fetched by the request in progress */
+    private String pendingValidator;
+    private long pendingContentBytes;
+
+    Record getRecord(boolean isTop) {
+        return isTop ? top : bottom;
+    }
+
+    RefreshPolicy.Decision getDecision() {
+        return decision;
+    }
+
+    /**
+     * Restores the decision of a request which was in progress when the state was saved
+     *
+     * @param decision The saved decision
+     */
+
+    void setDecision(RefreshPolicy.Decision decision) {
+        this.decision = decision;
+    }
+
+    boolean isTop() {
+        return isTop;
+    }
+
+    /**
+     * Starts a new refresh request, discarding anything recorded for the previous one
+     *
+     * @param policy The refresh policy, null to always fetch in full
+     * @param isTop If true, the top view was pulled
+     * @param now The current time in milliseconds
+     * @return How the request should be served, the caller completes SKIP requests immediately
+     */
+
+    RefreshPolicy.Decision begin(RefreshPolicy policy, boolean isTop, long now) {
+        this.isTop = isTop;
+        pendingValidator = null;
+        pendingContentBytes = 0L;
+
+        final Record record = getRecord(isTop);
+        decision = policy != null ? policy.decide(isTop, record.time, record.validator, now) :
+                RefreshPolicy.Decision.FULL;
+        return decision;
+    }
+
+    /**
+     * Continues a request restored from a saved state, keeping its restored decision
+     *
+     * @param isTop If true, the top view was pulled
+     * @return How the request should be served
+     */
+
+    RefreshPolicy.Decision resume(boolean isTop) {
+        this.isTop = isTop;
+        return decision;
+    }
+
+    /**
+     * Records the validator and size of the content fetched by the request in progress
+     *
+     * @param validator The validator of the new content, may be null
+     * @param contentBytes The size of the new content
+     */
+
+    void setPending(String validator, long contentBytes) {
+        pendingValidator = validator;
+        pendingContentBytes = contentBytes;
+    }
+
+    /**
+     * Completes the request in progress. A successful fetch replaces the record, a "not modified"
+     * answer only marks the record as fresh again, and skipped or failed requests leave it as is
+     *
+     * @param success If true, the request was completed successfully
+     * @param notModified If true, the source reported that the data has not changed
+     * @param now The current time in milliseconds
+     * @return The size of the content which did not have to be fetched again
+     */
+
+    long complete(boolean success, boolean notModified, long now) {
+        final Record record = getRecord(isTop);
+        final boolean skipped = decision == RefreshPolicy.Decision.SKIP;
+        final long bytesSaved = (skipped || (success && notModified)) ? record.contentBytes : 0L;
+
+        if (success && !skipped) {
+            record.time = now;
+            if (!notModified) {
+                record.validator = pendingValidator;
+                record.contentBytes = pendingContentBytes;
+            }
+        }
+        pendingValidator = null;
+        pendingContentBytes = 0L;
+
+        return bytesSaved;
+    }
+}
@@ -0,0 +1,92 @@
+package com.github.yggie.pulltorefresh;
+
+/**
+ * Decides how a refresh request should be served, given when the data was last refreshed and
+ * the validator (e.g. ETag or version) it was refreshed with. Set on a fragment with
+ * {@link PullListFragment#setRefreshPolicy(RefreshPolicy)}.
+ */
+
+public interface RefreshPolicy {
+
+    /** the possible ways to serve a refresh request */
+    public enum Decision {
+        /** the data is recent enough, the request is completed immediately */
+        SKIP,
+        /** the source is asked whether the data has changed since the last validator */
+        CONDITIONAL,
+        /** the data is fetched again in full */
+        FULL
+    }
+
+    /**
+     * Called when a refresh is requested
+     *
+     * @param isTop If true, the top view was pulled
+     * @param lastRefreshTime The time of the last successful refresh, or 0 if there was none
+     * @param validator The validator of the last successful refresh, may be null
+     * @param now The current time in milliseconds
+     * @return How the refresh should be served
+     */
+
+    public Decision decide(boolean isTop, long lastRefreshTime, String validator, long now);
+
+    /**
+     * Receives the outcome of each refresh served under a policy, e.g. for metrics
+     */
+
+    public static interface Listener {
+
+        /**
+         * Called when a refresh request has been completed
+         *
+         * @param decision How the refresh was served
+         * @param isTop If true, the top view was pulled
+         * @param bytesSaved The size of the content which did not have to be fetched again
+         */
+
+        public void onRefreshDecision(Decision decision, boolean isTop, long bytesSaved);
+    }
+
+    /**
+     * A policy based on the age of the data. Pulls within the minimum interval are skipped,
+     * data younger than the maximum age is revalidated if there is a validator, and anything
+     * older is fetched in full
+     */
+
+    public static class MaxAge implements RefreshPolicy {
+
+        private final long minInterval;
+        private final long maxAge;
+
+        /**
+         * @param minInterval Pulls sooner than this after a refresh are skipped, in milliseconds
+         * @param maxAge Data older than this is always fetched in full, in milliseconds
+         */
+
+        public MaxAge(long minInterval, long maxAge) {
+            if (minInterval > maxAge) {
+                throw new IllegalArgumentException("The minimum interval cannot exceed the max age");
+            }
+            this.minInterval = minInterval;
+            this.maxAge = maxAge;
+        }
+
+        @Override
+        public Decision decide(boolean isTop, long lastRefreshTime, String validator, long now) {
+            if (lastRefreshTime == 0L) {
+                return Decision.FULL;
+            }
+
+            final long age = now - lastRefreshTime;
+            if (age < 0L || age >= maxAge) {
+                return Decision.FULL;
+            } else if (age < minInterval) {
+                return Decision.SKIP;
+            } else if (validator != null) {
+                return Decision.CONDITIONAL;
+            }
+
+            return Decision.FULL;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.github.yggie.pulltorefresh;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+/**
+ * Posts Runnables to the UI thread on behalf of a single owner, such as a fragment or a view,
+ * and keeps track of every callback which has not run yet. The owner cancels all of them when it
+ * is torn down, so no pending callback can keep a dead fragment or view graph alive.
+ *
+ * In debug mode, {@link #assertIdle()} throws if any callback is still pending, to catch
+ * callbacks posted after the owner was torn down.
+ */
+
+public class Scheduler {
+
+    /** if true, assertIdle throws when callbacks are pending */
+    private static boolean debug = false;
+
+    private final TrackingHandler handler;
+
+    /** the distinct pending callbacks and the number of times each one is queued */
+    private Runnable[] callbacks;
+    private int[] counts;
+    private int size;
+
+    public Scheduler() {
+        handler = new TrackingHandler(this);
+        callbacks = new Runnable[4];
+        counts = new int[4];
+        size = 0;
+    }
+
+    /**
+     * Enables or disables the debug assertions of every scheduler
+     *
+     * @param enabled If true, assertIdle throws when callbacks are pending
+     */
+
+    public static void setDebug(boolean enabled) {
+        debug = enabled;
+    }
+
+    public static boolean isDebug() {
+        return debug;
+    }
+
+    public boolean post(Runnable callback) {
+        return postDelayed(callback, 0L);
+    }
+
+    /**
+     * Posts a callback to run on the UI thread after the given delay. May be called from any thread
+     *
+     * @param callback The callback to run
+     * @param delay The delay in milliseconds
+     * @return True if the callback was queued
+     */
+
+    public boolean postDelayed(Runnable callback, long delay) {
+        synchronized (this) {
+            track(callback);
+        }
+
+        if (!handler.postDelayed(callback, delay)) {
+            synchronized (this) {
+                untrack(callback, 1);
+            }
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes every pending post of the given callback
+     *
+     * @param callback The callback to remove
+     */
+
+    public void removeCallbacks(Runnable callback) {
+        handler.removeCallbacks(callback);
+        synchronized (this) {
+            untrack(callback, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Removes every pending callback
+     */
+
+    public void cancelAll() {
+        handler.removeCallbacksAndMessages(null);
+        synchronized (this) {
+            for (int i = 0; i < size; i++) {
+                callbacks[i] = null;
+            }
+            size = 0;
+        }
+    }
+
+    /**
+     * Returns the number of callbacks waiting to run
+     *
+     * @return The number of pending callbacks
+     */
+
+    public synchronized int getPendingCount() {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            count += counts[i];
+        }
+
+        return count;
+    }
+
+    /**
+     * In debug mode, throws if any callback is still pending. Does nothing otherwise
+     *
+     * @throws IllegalStateException If callbacks are pending in debug mode
+     */
+
+    public synchronized void assertIdle() {
+        if (!debug || size == 0) {
+            return;
+        }
+
+        final StringBuilder builder = new StringBuilder("Callbacks still pending:");
+        for (int i = 0; i < size; i++) {
+            builder.append(' ').append(callbacks[i].getClass().getName())
+                    .append(" x").append(counts[i]);
+        }
+        throw new IllegalStateException(builder.toString());
+    }
+
+    private void track(Runnable callback) {
+        for (int i = 0; i < size; i++) {
+            if (callbacks[i] == callback) {
+                counts[i]++;
+                return;
+            }
+        }
+
+        if (size == callbacks.length) {
+            final Runnable[] newCallbacks = new Runnable[2 * size];
+            final int[] newCounts = new int[2 * size];
+            System.arraycopy(callbacks, 0, newCallbacks, 0, size);
+            System.arraycopy(counts, 0, newCounts, 0, size);
+            callbacks = newCallbacks;
+            counts = newCounts;
+        }
+        callbacks[size] = callback;
+        counts[size] = 1;
+        size++;
+    }
+
+    private void untrack(Runnable callback, int count) {
+        for (int i = 0; i < size; i++) {
+            if (callbacks[i] == callback) {
+                counts[i] -= count;
+                if (counts[i] <= 0) {
+                    // swaps in the last entry, the order does not matter
+                    size--;
+                    callbacks[i] = callbacks[size];
+                    counts[i] = counts[size];
+                    callbacks[size] = null;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * A Handler on the UI thread which reports each callback as it is dispatched
+     */
+
+    private static class TrackingHandler extends Handler {
+
+        private final Scheduler scheduler;
+
+        private TrackingHandler(Scheduler scheduler) {
+            super(Looper.getMainLooper());
+            this.scheduler = scheduler;
+        }
+
+        @Override
+        public void dispatchMessage(Message msg) {
+            final Runnable callback = msg.getCallback();
+            if (callback != null) {
+                synchronized (scheduler) {
+                    scheduler.untrack(callback, 1);
+                }
+            }
+            super.dispatchMessage(msg);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.yggie.pulltorefresh;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+
+/**
+ * A small pool of pre-rendered sprites shared by every {@link StatusView} in sprite mode. Views
+ * with the same size, color and stroke width draw from the same bitmaps. The pool is registered
+ * with {@link MemoryTrimmer} and releases its bitmaps on memory pressure, views still holding a
+ * sprite keep it until they render a new one.
+ */
+
+final class SpritePool implements MemoryTrimmer.Trimmable {
+
+    /** the maximum size of the pool in bytes */
+    private static final int MAX_BYTES = 1024 * 1024;
+
+    /** the pool shared by the whole application, created on first use */
+    private static SpritePool instance;
+
+    private final LruCache<String, Bitmap> sprites;
+
+    private SpritePool() {
+        sprites = new LruCache<String, Bitmap>(MAX_BYTES) {
+            @Override
+            protected int sizeOf(String key, Bitmap sprite) {
+                return sprite.getRowBytes() * sprite.getHeight();
+            }
+        };
+    }
+
+    /**
+     * Returns the shared pool. Must be called from the UI thread
+     *
+     * @param context Any context of the application
+     * @return The shared pool
+     */
+
+    static SpritePool get(Context context) {
+        if (instance == null) {
+            instance = new SpritePool();
+            MemoryTrimmer.register(context, instance);
+        }
+
+        return instance;
+    }
+
+    /**
+     * Returns the sprite for the given key, or null if it has not been rendered yet
+     *
+     * @param key The key describing the state, size, color and stroke of the sprite
+     * @return The sprite, or null
+     */
+
+    Bitmap get(String key) {
+        return sprites.get(key);
+    }
+
+    void put(String key, Bitmap sprite) {
+        sprites.put(key, sprite);
+    }
+
+    @Override
+    public void onTrimMemory(MemoryTrimmer.TrimPolicy policy) {
+        // bitmaps are never recycled here, views may still be drawing them
+        if (policy == MemoryTrimmer.TrimPolicy.SHRINK) {
+            sprites.trimToSize(sprites.maxSize() / 2);
+        } else if (policy != MemoryTrimmer.TrimPolicy.NONE) {
+            sprites.evictAll();
+        }
+    }
+}
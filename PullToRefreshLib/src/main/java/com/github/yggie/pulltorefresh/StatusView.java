@@ -1,26 +1,32 @@
 package com.github.yggie.pulltorefresh;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.ColorFilter;
+import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.graphics.Path;
 import android.graphics.Rect;
 import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
-import android.os.Handler;
-import android.util.Log;
 import android.widget.ImageView;
 
 /**
  * Created by bryan on 28/11/13.
  */
 
-public class StatusView extends ImageView implements Runnable, PullListFragment.PullStateListener {
+public class StatusView extends ImageView implements Runnable, PullListFragment.PullStateListener,
+        PullListFragment.Suspendable {
 
     private static final int ANIMATION_TICK = 15;
 
-    private static final Handler handler = new Handler();
+    /** the number of ticks without a draw after which the animation stops ticking */
+    private static final int IDLE_TICKS = 3;
+
+    /** posts the animation ticks, cancelled when the view is detached */
+    private final Scheduler scheduler = new Scheduler();
 
     private enum State {
         INVISIBLE,
@@ -34,6 +40,27 @@ public class StatusView extends ImageView implements Runnable, PullListFragment.
 
     private long previousTime;
 
+    /** if true, the drawable is being animated, even while ticking is paused */
+    private boolean running;
+
+    /** if true, the animation is paused by the fragment */
+    private boolean suspended;
+
+    /** if true, ticking stopped because the view is not being drawn, the next draw resumes it */
+    private boolean idle;
+    private boolean drawnSinceTick;
+    private int undrawnTicks;
+
+    /** the low power mode slows down the spinner once a refresh takes longer than the delay */
+    private long lowPowerDelay;
+    private int lowPowerTick;
+    private long refreshStartTime;
+
+    /** the area covered by the drawable in the previous frame, and the area to invalidate */
+    private final Rect previousDirty = new Rect();
+    private final Rect dirty = new Rect();
+    private final RectF shapeDirty = new RectF();
+
     public StatusView(Context context, boolean isTop) {
         super(context);
         initialize(isTop);
@@ -43,12 +70,51 @@ public class StatusView extends ImageView implements Runnable, PullListFragment.
         drawable = new StatusDrawable(!isTop);
         setImageDrawable(drawable);
         previousTime = 0L;
+        running = false;
+        suspended = false;
+        idle = false;
+        lowPowerDelay = -1L;
+        lowPowerTick = ANIMATION_TICK;
     }
 
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
-        handler.removeCallbacks(this);
+        scheduler.cancelAll();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        updateTicking();
+    }
+
+    /**
+     * Resumes ticking when the view is drawn again after it was hidden, e.g. scrolled or
+     * translated out of sight
+     *
+     * @param canvas The canvas to draw on
+     */
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        drawnSinceTick = true;
+        if (idle) {
+            updateTicking();
+        }
+    }
+
+    @Override
+    public void suspendAnimations() {
+        suspended = true;
+        updateTicking();
+    }
+
+    @Override
+    public void resumeAnimations() {
+        suspended = false;
+        updateTicking();
     }
 
     public void setStrokeColor(int color) {
@@ -59,12 +125,57 @@ public class StatusView extends ImageView implements Runnable, PullListFragment.
         drawable.setStrokeWidth(width);
     }
 
+    /**
+     * Enables the low power mode. Once a refresh has been running for the given delay, the
+     * spinner is only redrawn at the given interval, to reduce wakeups during long refreshes.
+     * The spinner keeps turning at the same speed, in larger steps
+     *
+     * @param delay The refresh time after which the low power mode starts, in milliseconds
+     * @param tick The interval between two frames in low power mode, in milliseconds
+     */
+
+    public void enableLowPowerMode(long delay, int tick) {
+        if (delay < 0L || tick < ANIMATION_TICK) {
+            throw new IllegalArgumentException("The delay must be positive and the tick at least " +
+                    ANIMATION_TICK + "ms");
+        }
+        lowPowerDelay = delay;
+        lowPowerTick = tick;
+    }
+
+    /**
+     * Disables the low power mode, the spinner is always drawn at the full frame rate
+     */
+
+    public void disableLowPowerMode() {
+        lowPowerDelay = -1L;
+        lowPowerTick = ANIMATION_TICK;
+    }
+
+    /**
+     * Enables or disables the sprite mode. In sprite mode the arrow and spinner are rendered
+     * once into a pooled bitmap, and each animation frame only draws the rotated bitmap. This
+     * makes frames cheap on software canvases and slow GPUs, at the cost of a small bitmap
+     *
+     * @param enabled If true, the rotating shapes are drawn from sprites
+     */
+
+    public void setSpriteMode(boolean enabled) {
+        drawable.setSpriteMode(enabled);
+        invalidate();
+    }
+
+    public boolean isSpriteMode() {
+        return drawable.spritePool != null;
+    }
+
     @Override
     public void onPullStarted() {
         drawable.setState(State.PULLING);
         if (!drawable.facingUp) {
             drawable.setRotation(180.0f);
         }
+        invalidate();
     }
 
     @Override
@@ -77,6 +188,8 @@ public class StatusView extends ImageView implements Runnable, PullListFragment.
     public void onRefreshRequest() {
         drawable.setState(State.REFRESHING);
         drawable.targetRotation = 180.0f;
+        refreshStartTime = System.currentTimeMillis();
+        invalidate();
         start();
     }
 
@@ -88,32 +201,98 @@ public class StatusView extends ImageView implements Runnable, PullListFragment.
         } else {
             drawable.setState(State.COMPLETE_FAILURE);
         }
+        invalidate();
     }
 
     @Override
     public void onPullEnd() {
         drawable.setState(State.INVISIBLE);
+        invalidate();
     }
 
     @Override
     public void run() {
+        // the previous frames were never drawn, the view cannot be seen
+        undrawnTicks = drawnSinceTick ? 0 : undrawnTicks + 1;
+        drawnSinceTick = false;
+        if (undrawnTicks > IDLE_TICKS) {
+            idle = true;
+            return;
+        }
+
         final long now = System.currentTimeMillis();
         final int diff = (int)(now - previousTime);
-        if (drawable.animate(diff / ANIMATION_TICK)) {
-            handler.postDelayed(this, ANIMATION_TICK);
+        final boolean animating = drawable.animate(diff / ANIMATION_TICK);
+        invalidateShape();
+        if (animating) {
+            scheduler.postDelayed(this, getTick(now));
             previousTime = now - (long)(diff % ANIMATION_TICK);
+        } else {
+            running = false;
+        }
+    }
+
+    /**
+     * Returns the interval until the next frame
+     *
+     * @param now The current time in milliseconds
+     * @return The interval in milliseconds
+     */
+
+    private int getTick(long now) {
+        if (lowPowerDelay >= 0L && drawable.state == State.REFRESHING &&
+                now - refreshStartTime >= lowPowerDelay) {
+            return lowPowerTick;
+        }
+
+        return ANIMATION_TICK;
+    }
+
+    /**
+     * Invalidates only the area covered by the rotated shape, in this frame and the previous one
+     */
+
+    private void invalidateShape() {
+        drawable.getRotatedBounds(shapeDirty);
+        shapeDirty.roundOut(dirty);
+        dirty.offset(getPaddingLeft(), getPaddingTop());
+
+        if (previousDirty.isEmpty()) {
+            invalidate(dirty);
+        } else {
+            previousDirty.union(dirty);
+            invalidate(previousDirty);
         }
+        previousDirty.set(dirty);
     }
 
     private void start() {
         stop();
-        previousTime = System.currentTimeMillis();
-        handler.post(this);
+        running = true;
+        updateTicking();
     }
 
     private void stop() {
-        handler.removeCallbacks(this);
+        scheduler.removeCallbacks(this);
         previousTime = 0L;
+        running = false;
+        previousDirty.setEmpty();
+    }
+
+    /**
+     * Posts the animation ticks only while the animation is running and the view can be seen. A
+     * paused animation continues from where it left off, without catching up on the missed ticks.
+     * Ticking also stops by itself when the frames are no longer drawn, until the next draw
+     */
+
+    private void updateTicking() {
+        scheduler.removeCallbacks(this);
+        idle = false;
+        undrawnTicks = 0;
+        if (running && !suspended && getWindowVisibility() == VISIBLE) {
+            previousTime = System.currentTimeMillis();
+            scheduler.post(this);
+        }
     }
 
     private class StatusDrawable extends Drawable {
@@ -146,9 +325,28 @@ public class StatusView extends ImageView implements Runnable, PullListFragment.
         private final boolean facingUp;
         private final RectF boundingBox; // for refreshing
 
+        /** the shape of the current state, built once per shape update and drawn in two calls */
+        private final float[] lines;
+        private int lineCount;
+        private final Path arcPath;
+        private boolean hasArcs;
+
+        /** the unrotated area covered by the shape, including the stroke */
+        private final RectF shapeBounds;
+        private final Matrix boundsMatrix;
+
         /** the paint used to draw the arrow */
         private final Paint strokePaint;
 
+        /** the pool of sprites, null unless the sprite mode is enabled */
+        private SpritePool spritePool;
+
+        /** the rendered shape of the current state, rebuilt when the bounds, color or stroke change */
+        private Bitmap sprite;
+        private final Matrix spriteMatrix;
+        private final Paint spritePaint;
+        private ColorFilter colorFilter;
+
         private State state;
 
         public StatusDrawable(boolean facingUp) {
@@ -161,6 +359,14 @@ public class StatusView extends ImageView implements Runnable, PullListFragment.
             lineWidth = 3.0f;
             boundingBox = new RectF();
             points = new float[20];
+            lines = new float[24];
+            lineCount = 0;
+            arcPath = new Path();
+            hasArcs = false;
+            shapeBounds = new RectF();
+            boundsMatrix = new Matrix();
+            spriteMatrix = new Matrix();
+            spritePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
 
             strokePaint = new Paint();
             strokePaint.setColor(Color.BLACK);
@@ -185,40 +391,98 @@ public class StatusView extends ImageView implements Runnable, PullListFragment.
                     break;
 
                 case PULLING:
-                    canvas.save();
-                    canvas.rotate(rotation, midX, midY);
-                    canvas.drawLine(points[0], points[1], points[2], points[3], strokePaint);
-                    canvas.drawLine(points[0], points[1], points[4], points[5], strokePaint);
-                    canvas.drawLine(points[6], points[7], points[8], points[9], strokePaint);
-                    canvas.restore();
-                    break;
-
                 case REFRESHING:
-                    canvas.save();
-                    canvas.rotate(rotation, midX, midY);
-                    canvas.drawArc(boundingBox, 0.0f, -120.0f, false, strokePaint);
-                    canvas.drawArc(boundingBox, 180.0f, -120.0f, false, strokePaint);
-                    for (int i = 0; i < 2; i++) {
-                        final int offset = 10*i;
-                        canvas.drawLine(points[offset], points[offset + 1], points[offset + 2], points[offset + 3], strokePaint);
-                        canvas.drawLine(points[offset], points[offset + 1], points[offset + 4], points[offset + 5], strokePaint);
-                        canvas.drawLine(points[offset + 6], points[offset + 7], points[offset + 8], points[offset + 9], strokePaint);
+                    final Bitmap sprite = getSprite();
+                    if (sprite != null) {
+                        spriteMatrix.setRotate(rotation, midX, midY);
+                        canvas.drawBitmap(sprite, spriteMatrix, spritePaint);
+                    } else {
+                        canvas.save();
+                        canvas.rotate(rotation, midX, midY);
+                        drawShape(canvas);
+                        canvas.restore();
                     }
-                    canvas.restore();
                     break;
 
                 case COMPLETE_SUCCESS:
-                    canvas.drawLine(points[0], points[1], points[2], points[3], strokePaint);
-                    canvas.drawLine(points[0], points[1], points[4], points[5], strokePaint);
-                    break;
-
                 case COMPLETE_FAILURE:
-                    canvas.drawLine(points[0], points[1], points[2], points[3], strokePaint);
-                    canvas.drawLine(points[4], points[5], points[6], points[7], strokePaint);
+                    drawShape(canvas);
                     break;
             }
         }
 
+        /**
+         * Draws the unrotated shape of the current state, the arcs in one path and all the lines
+         * in a single batch
+         *
+         * @param canvas The graphic context to draw on
+         */
+
+        private void drawShape(Canvas canvas) {
+            if (hasArcs) {
+                canvas.drawPath(arcPath, strokePaint);
+            }
+            canvas.drawLines(lines, 0, lineCount, strokePaint);
+        }
+
+        /**
+         * Computes the area covered by the shape at its current rotation
+         *
+         * @param out The rectangle to receive the area, relative to the bounds
+         */
+
+        public void getRotatedBounds(RectF out) {
+            out.set(shapeBounds.left, shapeBounds.top, shapeBounds.right, shapeBounds.bottom);
+            if (state == State.PULLING || state == State.REFRESHING) {
+                boundsMatrix.setRotate(rotation, midX, midY);
+                boundsMatrix.mapRect(out);
+            }
+        }
+
+        /**
+         * Returns the sprite of the current state, rendering it into the pool if no drawable with
+         * the same appearance has done so yet
+         *
+         * @return The sprite, or null if the sprite mode is disabled or the bounds are empty
+         */
+
+        private Bitmap getSprite() {
+            if (spritePool == null) {
+                return null;
+            }
+
+            if (sprite == null) {
+                final Rect bounds = getBounds();
+                if (bounds.width() <= 0 || bounds.height() <= 0) {
+                    return null;
+                }
+
+                final String key = state.name() + ':' + bounds.width() + 'x' + bounds.height() +
+                        ':' + strokePaint.getColor() + ':' + lineWidth + ':' + scale + ':' +
+                        System.identityHashCode(colorFilter);
+                sprite = spritePool.get(key);
+                if (sprite == null) {
+                    sprite = Bitmap.createBitmap(bounds.width(), bounds.height(),
+                            Bitmap.Config.ARGB_8888);
+                    drawShape(new Canvas(sprite));
+                    spritePool.put(key, sprite);
+                }
+            }
+
+            return sprite;
+        }
+
+        /**
+         * Enables or disables drawing the rotating shapes from pooled sprites
+         *
+         * @param enabled If true, the sprite mode is enabled
+         */
+
+        public void setSpriteMode(boolean enabled) {
+            spritePool = enabled ? SpritePool.get(getContext()) : null;
+            sprite = null;
+        }
+
         /**
          * Set the stroke color to the specified value
          *
@@ -227,6 +491,7 @@ public class StatusView extends ImageView implements Runnable, PullListFragment.
 
         public void setStrokeColor(int color) {
             strokePaint.setColor(color);
+            sprite = null;
         }
 
         /**
@@ -238,6 +503,7 @@ public class StatusView extends ImageView implements Runnable, PullListFragment.
         @Override
         public void setAlpha(int alpha) {
             strokePaint.setAlpha(alpha);
+            sprite = null;
         }
 
         /**
@@ -249,6 +515,8 @@ public class StatusView extends ImageView implements Runnable, PullListFragment.
         @Override
         public void setColorFilter(ColorFilter colorFilter) {
             strokePaint.setColorFilter(colorFilter);
+            this.colorFilter = colorFilter;
+            sprite = null;
         }
 
         /**
@@ -271,6 +539,7 @@ public class StatusView extends ImageView implements Runnable, PullListFragment.
         @Override
         protected void onBoundsChange(Rect bounds) {
             super.onBoundsChange(bounds);
+            sprite = null;
             updateShape();
         }
 
@@ -294,6 +563,7 @@ public class StatusView extends ImageView implements Runnable, PullListFragment.
 
         public void setScale(float scale) {
             this.scale = scale;
+            sprite = null;
             updateShape();
         }
 
@@ -306,6 +576,7 @@ public class StatusView extends ImageView implements Runnable, PullListFragment.
         public void setStrokeWidth(float width) {
             lineWidth = width;
             strokePaint.setStrokeWidth(width);
+            sprite = null;
             updateShape();
         }
 
@@ -318,9 +589,10 @@ public class StatusView extends ImageView implements Runnable, PullListFragment.
                 return;
             }
             this.state = state;
+            sprite = null;
             setRotation(0.0f);
             updateShape();
-            Log.d("***", "[setState] Set to state " + state.name());
+            Diagnostics.event(Diagnostics.EVENT_STATUS_STATE, state.ordinal());
         }
 
         /**
@@ -328,6 +600,9 @@ public class StatusView extends ImageView implements Runnable, PullListFragment.
          */
 
         private void updateShape() {
+            lineCount = 0;
+            hasArcs = false;
+            shapeBounds.setEmpty();
             if (state == State.INVISIBLE) {
                 return;
             }
@@ -436,6 +711,79 @@ public class StatusView extends ImageView implements Runnable, PullListFragment.
                 }
                     break;
             }
+
+            buildBatches();
+        }
+
+        /**
+         * Copies the computed points into the line batch and the arc path of the current state
+         */
+
+        private void buildBatches() {
+            switch (state) {
+                case PULLING:
+                    addLine(0, 2);
+                    addLine(0, 4);
+                    addLine(6, 8);
+                    break;
+
+                case REFRESHING:
+                    for (int i = 0; i < 2; i++) {
+                        final int offset = 10*i;
+                        addLine(offset, offset + 2);
+                        addLine(offset, offset + 4);
+                        addLine(offset + 6, offset + 8);
+                    }
+                    arcPath.rewind();
+                    arcPath.addArc(boundingBox, 0.0f, -120.0f);
+                    arcPath.addArc(boundingBox, 180.0f, -120.0f);
+                    hasArcs = true;
+                    break;
+
+                case COMPLETE_SUCCESS:
+                    addLine(0, 2);
+                    addLine(0, 4);
+                    break;
+
+                case COMPLETE_FAILURE:
+                    addLine(0, 2);
+                    addLine(4, 6);
+                    break;
+
+                default:
+                    break;
+            }
+
+            if (lineCount == 0) {
+                return;
+            }
+
+            float left = lines[0];
+            float top = lines[1];
+            float right = left;
+            float bottom = top;
+            for (int i = 2; i < lineCount; i += 2) {
+                left = Math.min(left, lines[i]);
+                right = Math.max(right, lines[i]);
+                top = Math.min(top, lines[i + 1]);
+                bottom = Math.max(bottom, lines[i + 1]);
+            }
+            if (hasArcs) {
+                left = Math.min(left, boundingBox.left);
+                top = Math.min(top, boundingBox.top);
+                right = Math.max(right, boundingBox.right);
+                bottom = Math.max(bottom, boundingBox.bottom);
+            }
+
+            // square caps and anti-aliasing reach beyond the points
+            shapeBounds.set(left - lineWidth, top - lineWidth, right + lineWidth, bottom + lineWidth);
+        }
+
+        private void addLine(int start, int end) {
+            lines[lineCount++] = points[start];
+            lines[lineCount++] = points[start + 1];
+            lines[lineCount++] = points[end];
+            lines[lineCount++] = points[end + 1];
         }
 
         public boolean animate(int ticks) {
@@ -449,12 +797,9 @@ public class StatusView extends ImageView implements Runnable, PullListFragment.
             return true;
         }
 
-        private int zelo = 0;
-
         public boolean animate() {
             switch (state) {
                 case INVISIBLE:
-                    zelo = 0;
                     break;
 
                 case PULLING:
@@ -472,7 +817,7 @@ public class StatusView extends ImageView implements Runnable, PullListFragment.
                     if (Math.abs(targetRotation - rotation) < 10.0f) {
                         rotation = targetRotation;
                         targetRotation += 180.0f;
-                        Log.d("***", "Called " + (zelo++));
+                        Diagnostics.event(Diagnostics.EVENT_SPINNER_TURN, (long)targetRotation);
                     } else {
                         rotation *= (1.0f - REFRESHING_EASING);
                         rotation += targetRotation * REFRESHING_EASING;
@@ -0,0 +1,144 @@
+package com.github.yggie.pulltorefresh;
+
+/**
+ * A local stand-in for a remote data source, for tests running on the JVM. Works like the fake
+ * source of the sample app, answering each request after a configurable latency, but on a clock
+ * advanced by the test instead of a Handler. Supports conditional requests by publishing a new
+ * version of its content at a fixed interval
+ */
+public class FakeRefreshSource {
+
+    /**
+     * Receives the answer to a request
+     */
+
+    public static interface Callback {
+
+        /**
+         * @param success If false, the request failed
+         * @param notModified If true, the content has not changed since the given validator
+         * @param validator The validator of the current content
+         * @param contentBytes The size of the current content
+         */
+
+        public void onResult(boolean success, boolean notModified, String validator,
+                             long contentBytes);
+    }
+
+    /** the current time of the source, in milliseconds */
+    private long now;
+
+    /** the simulated network and server time, in milliseconds */
+    private long latency;
+
+    /** how often the content changes, in milliseconds */
+    private final long changeInterval;
+
+    /** the size of the content */
+    private final long contentBytes;
+
+    /** if true, every other request fails */
+    private boolean alternateFailures;
+    private boolean failNext;
+
+    /** the request in progress, answered once the clock reaches its answer time */
+    private String pendingValidator;
+    private Callback pendingCallback;
+    private long answerTime;
+
+    /** the number of answered requests */
+    private int answerCount;
+
+    public FakeRefreshSource(long startTime, long latency, long changeInterval, long contentBytes) {
+        this.now = startTime;
+        this.latency = latency;
+        this.changeInterval = changeInterval;
+        this.contentBytes = contentBytes;
+        this.alternateFailures = false;
+        this.failNext = false;
+        this.answerCount = 0;
+    }
+
+    public long now() {
+        return now;
+    }
+
+    /**
+     * Advances the clock of the source, answering the request in progress if its latency has
+     * passed. New content is published whenever a change interval has passed
+     *
+     * @param millis The time to advance by, in milliseconds
+     */
+
+    public void advance(long millis) {
+        now += millis;
+        if (pendingCallback != null && now >= answerTime) {
+            final String validator = pendingValidator;
+            final Callback callback = pendingCallback;
+            pendingValidator = null;
+            pendingCallback = null;
+            answer(validator, callback);
+        }
+    }
+
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    public void setAlternateFailures(boolean alternateFailures) {
+        this.alternateFailures = alternateFailures;
+    }
+
+    public int getAnswerCount() {
+        return answerCount;
+    }
+
+    /**
+     * Requests the content. Any request still in progress is cancelled
+     *
+     * @param validator The validator of the content held by the caller, null for a full fetch
+     * @param callback Receives the answer, from within advance once the latency has passed
+     */
+
+    public void fetch(String validator, Callback callback) {
+        cancel();
+
+        pendingValidator = validator;
+        pendingCallback = callback;
+        answerTime = now + latency;
+    }
+
+    /**
+     * Returns true if a request is in progress
+     *
+     * @return True if a request is in progress
+     */
+
+    public boolean isFetching() {
+        return pendingCallback != null;
+    }
+
+    public void cancel() {
+        pendingValidator = null;
+        pendingCallback = null;
+    }
+
+    public String getValidator() {
+        return "v" + (now / changeInterval);
+    }
+
+    private void answer(String validator, Callback callback) {
+        answerCount++;
+
+        final boolean success = !(alternateFailures && failNext);
+        failNext = !failNext;
+        if (!success) {
+            callback.onResult(false, false, null, 0L);
+            return;
+        }
+
+        final String current = getValidator();
+        final boolean notModified = current.equals(validator);
+        callback.onResult(true, notModified, current, notModified ? 0L : contentBytes);
+    }
+}
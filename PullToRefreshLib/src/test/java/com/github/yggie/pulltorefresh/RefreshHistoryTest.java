@@ -0,0 +1,247 @@
+package com.github.yggie.pulltorefresh;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the refresh bookkeeping of {@link RefreshHistory}, alone and serving requests to a
+ * {@link FakeRefreshSource} with latency
+ */
+public class RefreshHistoryTest {
+
+    private static final long MIN_INTERVAL = 10000L;
+    private static final long MAX_AGE = 60000L;
+    private static final long START = 1000000L;
+
+    private RefreshPolicy policy;
+    private RefreshHistory history;
+
+    @Before
+    public void setUp() {
+        policy = new RefreshPolicy.MaxAge(MIN_INTERVAL, MAX_AGE);
+        history = new RefreshHistory();
+    }
+
+    @Test
+    public void withoutPolicyEveryRequestIsFetchedInFull() {
+        history.getRecord(true).set(START, "v1", 1024L);
+        assertEquals(RefreshPolicy.Decision.FULL, history.begin(null, true, START + 1L));
+    }
+
+    @Test
+    public void fullFetchReplacesTheRecord() {
+        assertEquals(RefreshPolicy.Decision.FULL, history.begin(policy, true, START));
+        history.setPending("v1", 1024L);
+        assertEquals(0L, history.complete(true, false, START + 5L));
+
+        final RefreshHistory.Record record = history.getRecord(true);
+        assertEquals(START + 5L, record.getTime());
+        assertEquals("v1", record.getValidator());
+        assertEquals(1024L, record.getContentBytes());
+    }
+
+    @Test
+    public void skippedRequestSavesTheContentAndKeepsTheRecord() {
+        history.getRecord(true).set(START, "v1", 1024L);
+
+        assertEquals(RefreshPolicy.Decision.SKIP, history.begin(policy, true, START + 1L));
+        assertEquals(1024L, history.complete(true, false, START + 2L));
+
+        final RefreshHistory.Record record = history.getRecord(true);
+        assertEquals(START, record.getTime());
+        assertEquals("v1", record.getValidator());
+    }
+
+    @Test
+    public void notModifiedKeepsTheOldValidator() {
+        history.getRecord(true).set(START, "v1", 1024L);
+
+        assertEquals(RefreshPolicy.Decision.CONDITIONAL,
+                history.begin(policy, true, START + MIN_INTERVAL));
+        history.setPending("v2", 2048L);
+        assertEquals(1024L, history.complete(true, true, START + MIN_INTERVAL + 5L));
+
+        final RefreshHistory.Record record = history.getRecord(true);
+        assertEquals(START + MIN_INTERVAL + 5L, record.getTime());
+        assertEquals("v1", record.getValidator());
+        assertEquals(1024L, record.getContentBytes());
+    }
+
+    @Test
+    public void failureKeepsTheRecordAndSavesNothing() {
+        history.getRecord(true).set(START, "v1", 1024L);
+
+        history.begin(policy, true, START + MIN_INTERVAL);
+        history.setPending("v2", 2048L);
+        assertEquals(0L, history.complete(false, false, START + MIN_INTERVAL + 5L));
+
+        final RefreshHistory.Record record = history.getRecord(true);
+        assertEquals(START, record.getTime());
+        assertEquals("v1", record.getValidator());
+    }
+
+    @Test
+    public void pendingValidatorIsClearedByCompletion() {
+        history.begin(policy, true, START);
+        history.setPending("v1", 1024L);
+        history.complete(false, false, START + 5L);
+
+        // the next request never reported a validator
+        history.begin(policy, true, START + 10L);
+        history.complete(true, false, START + 15L);
+        assertNull(history.getRecord(true).getValidator());
+        assertEquals(0L, history.getRecord(true).getContentBytes());
+    }
+
+    @Test
+    public void pendingValidatorIsClearedByNewRequest() {
+        history.begin(policy, true, START);
+        history.setPending("v1", 1024L);
+
+        history.begin(policy, true, START + 10L);
+        history.complete(true, false, START + 15L);
+        assertNull(history.getRecord(true).getValidator());
+    }
+
+    @Test
+    public void pulledViewsKeepSeparateRecords() {
+        history.begin(policy, false, START);
+        history.setPending("bottom", 512L);
+        history.complete(true, false, START);
+
+        assertFalse(history.isTop());
+        assertEquals(0L, history.getRecord(true).getTime());
+        assertEquals("bottom", history.getRecord(false).getValidator());
+        assertEquals(RefreshPolicy.Decision.FULL, history.begin(policy, true, START + 1L));
+    }
+
+    @Test
+    public void restoredRequestKeepsItsDecision() {
+        history.getRecord(true).set(START, "v1", 1024L);
+        history.setDecision(RefreshPolicy.Decision.CONDITIONAL);
+
+        // the policy would skip this request, but it was already sent before the restore
+        assertEquals(RefreshPolicy.Decision.CONDITIONAL, history.resume(true));
+        assertEquals(1024L, history.complete(true, true, START + 1L));
+    }
+
+    /**
+     * Completes the request in progress with the answer of the source, through the same calls
+     * the fragment makes for setRefreshValidator, requestComplete and requestNotModified
+     */
+
+    private class Answer implements FakeRefreshSource.Callback {
+
+        private final FakeRefreshSource source;
+        private int count = 0;
+        private long bytesSaved = 0L;
+
+        Answer(FakeRefreshSource source) {
+            this.source = source;
+        }
+
+        @Override
+        public void onResult(boolean success, boolean notModified, String validator,
+                             long contentBytes) {
+            count++;
+            if (success && !notModified) {
+                history.setPending(validator, contentBytes);
+            }
+            bytesSaved += history.complete(success, notModified, source.now());
+        }
+    }
+
+    /**
+     * Begins a request and sends it to the source, unless it is skipped
+     */
+
+    private RefreshPolicy.Decision pull(FakeRefreshSource source, Answer answer) {
+        final RefreshPolicy.Decision decision = history.begin(policy, true, source.now());
+        if (decision == RefreshPolicy.Decision.SKIP) {
+            answer.bytesSaved += history.complete(true, false, source.now());
+        } else {
+            source.fetch(decision == RefreshPolicy.Decision.CONDITIONAL ?
+                    history.getRecord(true).getValidator() : null, answer);
+        }
+
+        return decision;
+    }
+
+    @Test
+    public void servesPullsFromTheSource() {
+        final FakeRefreshSource source = new FakeRefreshSource(START, 500L, 30000L, 1024L);
+        final Answer answer = new Answer(source);
+
+        assertEquals(RefreshPolicy.Decision.FULL, pull(source, answer));
+        source.advance(499L);
+        assertTrue(source.isFetching());
+        assertEquals(0L, history.getRecord(true).getTime());
+        source.advance(1L);
+        assertFalse(source.isFetching());
+        assertEquals(START + 500L, history.getRecord(true).getTime());
+
+        source.advance(MIN_INTERVAL - 1L);
+        assertEquals(RefreshPolicy.Decision.SKIP, pull(source, answer));
+        assertFalse(source.isFetching());
+        assertEquals(1024L, answer.bytesSaved);
+
+        // still the same version of the content
+        source.advance(1L);
+        assertEquals(RefreshPolicy.Decision.CONDITIONAL, pull(source, answer));
+        source.advance(500L);
+        assertEquals(2048L, answer.bytesSaved);
+
+        source.advance(MAX_AGE);
+        assertEquals(RefreshPolicy.Decision.FULL, pull(source, answer));
+        source.advance(500L);
+        assertEquals(2048L, answer.bytesSaved);
+        assertEquals(3, source.getAnswerCount());
+    }
+
+    @Test
+    public void pullDuringRequestInFlightReplacesIt() {
+        final FakeRefreshSource source = new FakeRefreshSource(START, 500L, 30000L, 1024L);
+        final Answer answer = new Answer(source);
+
+        assertEquals(RefreshPolicy.Decision.FULL, pull(source, answer));
+        source.advance(300L);
+
+        // nothing was recorded yet, so the second pull is fetched in full as well
+        assertEquals(RefreshPolicy.Decision.FULL, pull(source, answer));
+        source.advance(300L);
+        assertEquals(0, answer.count);
+        assertTrue(source.isFetching());
+
+        source.advance(200L);
+        assertEquals(1, answer.count);
+        assertEquals(1, source.getAnswerCount());
+        assertEquals(START + 800L, history.getRecord(true).getTime());
+        assertEquals(source.getValidator(), history.getRecord(true).getValidator());
+    }
+
+    @Test
+    public void failedRefreshesAreRetriedInFull() {
+        final FakeRefreshSource source = new FakeRefreshSource(START, 500L, 30000L, 1024L);
+        source.setAlternateFailures(true);
+        final Answer answer = new Answer(source);
+
+        pull(source, answer);
+        source.advance(500L);
+        final long refreshTime = history.getRecord(true).getTime();
+
+        // the failure keeps the time of the last successful refresh
+        source.advance(MAX_AGE);
+        assertEquals(RefreshPolicy.Decision.FULL, pull(source, answer));
+        source.advance(500L);
+        assertEquals(refreshTime, history.getRecord(true).getTime());
+
+        assertEquals(RefreshPolicy.Decision.FULL, pull(source, answer));
+        source.advance(500L);
+        assertEquals(START + MAX_AGE + 1500L, history.getRecord(true).getTime());
+    }
+}
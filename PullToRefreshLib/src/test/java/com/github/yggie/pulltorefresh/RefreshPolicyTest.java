@@ -0,0 +1,75 @@
+package com.github.yggie.pulltorefresh;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the boundaries of {@link RefreshPolicy.MaxAge}
+ */
+public class RefreshPolicyTest {
+
+    private static final long MIN_INTERVAL = 10000L;
+    private static final long MAX_AGE = 60000L;
+    private static final long LAST_REFRESH = 1000000L;
+
+    private RefreshPolicy policy;
+
+    @Before
+    public void setUp() {
+        policy = new RefreshPolicy.MaxAge(MIN_INTERVAL, MAX_AGE);
+    }
+
+    private RefreshPolicy.Decision decideAtAge(long age, String validator) {
+        return policy.decide(true, LAST_REFRESH, validator, LAST_REFRESH + age);
+    }
+
+    @Test
+    public void neverRefreshedIsFetchedInFull() {
+        assertEquals(RefreshPolicy.Decision.FULL, policy.decide(true, 0L, "v1", LAST_REFRESH));
+        assertEquals(RefreshPolicy.Decision.FULL, policy.decide(false, 0L, null, 0L));
+    }
+
+    @Test
+    public void freshDataIsSkipped() {
+        assertEquals(RefreshPolicy.Decision.SKIP, decideAtAge(0L, "v1"));
+        assertEquals(RefreshPolicy.Decision.SKIP, decideAtAge(MIN_INTERVAL - 1L, "v1"));
+        assertEquals(RefreshPolicy.Decision.SKIP, decideAtAge(MIN_INTERVAL - 1L, null));
+    }
+
+    @Test
+    public void staleDataIsRevalidated() {
+        assertEquals(RefreshPolicy.Decision.CONDITIONAL, decideAtAge(MIN_INTERVAL, "v1"));
+        assertEquals(RefreshPolicy.Decision.CONDITIONAL, decideAtAge(MAX_AGE - 1L, "v1"));
+    }
+
+    @Test
+    public void staleDataWithoutValidatorIsFetchedInFull() {
+        assertEquals(RefreshPolicy.Decision.FULL, decideAtAge(MIN_INTERVAL, null));
+        assertEquals(RefreshPolicy.Decision.FULL, decideAtAge(MAX_AGE - 1L, null));
+    }
+
+    @Test
+    public void expiredDataIsFetchedInFull() {
+        assertEquals(RefreshPolicy.Decision.FULL, decideAtAge(MAX_AGE, "v1"));
+        assertEquals(RefreshPolicy.Decision.FULL, decideAtAge(MAX_AGE + 1L, "v1"));
+    }
+
+    @Test
+    public void clockGoingBackwardsIsFetchedInFull() {
+        assertEquals(RefreshPolicy.Decision.FULL, decideAtAge(-1L, "v1"));
+    }
+
+    @Test
+    public void equalIntervalsNeverSkip() {
+        policy = new RefreshPolicy.MaxAge(MAX_AGE, MAX_AGE);
+        assertEquals(RefreshPolicy.Decision.FULL, decideAtAge(MAX_AGE, "v1"));
+        assertEquals(RefreshPolicy.Decision.SKIP, decideAtAge(MAX_AGE - 1L, "v1"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void minIntervalAboveMaxAgeIsRejected() {
+        new RefreshPolicy.MaxAge(MAX_AGE + 1L, MAX_AGE);
+    }
+}
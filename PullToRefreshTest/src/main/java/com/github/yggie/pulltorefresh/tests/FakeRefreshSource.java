@@ -0,0 +1,114 @@
+package com.github.yggie.pulltorefresh.tests;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * A local stand-in for a remote data source. Answers each request after a configurable latency,
+ * and supports conditional requests by publishing a new version of its content at a fixed
+ * interval
+ */
+public class FakeRefreshSource {
+
+    /**
+     * Receives the answer to a request
+     */
+
+    public static interface Callback {
+
+        /**
+         * @param success If false, the request failed
+         * @param notModified If true, the content has not changed since the given validator
+         * @param validator The validator of the current content
+         * @param contentBytes The size of the current content
+         */
+
+        public void onResult(boolean success, boolean notModified, String validator,
+                             long contentBytes);
+    }
+
+    private final Handler handler = new Handler();
+    private final long startTime = SystemClock.uptimeMillis();
+
+    /** the simulated network and server time, in milliseconds */
+    private long latency;
+
+    /** how often the content changes, in milliseconds */
+    private long changeInterval;
+
+    /** the size of the content */
+    private long contentBytes;
+
+    /** if true, every other request fails */
+    private boolean alternateFailures;
+    private boolean failNext;
+
+    private Runnable pending;
+
+    public FakeRefreshSource(long latency, long changeInterval, long contentBytes) {
+        this.latency = latency;
+        this.changeInterval = changeInterval;
+        this.contentBytes = contentBytes;
+        this.alternateFailures = false;
+        this.failNext = false;
+    }
+
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    public void setAlternateFailures(boolean alternateFailures) {
+        this.alternateFailures = alternateFailures;
+    }
+
+    /**
+     * Requests the content. Any request still in progress is cancelled
+     *
+     * @param validator The validator of the content held by the caller, null for a full fetch
+     * @param callback Receives the answer on the UI thread
+     */
+
+    public void fetch(final String validator, final Callback callback) {
+        cancel();
+
+        pending = new Runnable() {
+            @Override
+            public void run() {
+                pending = null;
+
+                final boolean success = !(alternateFailures && failNext);
+                failNext = !failNext;
+                if (!success) {
+                    callback.onResult(false, false, null, 0L);
+                    return;
+                }
+
+                final String current = getValidator();
+                final boolean notModified = current.equals(validator);
+                callback.onResult(true, notModified, current, notModified ? 0L : contentBytes);
+            }
+        };
+        handler.postDelayed(pending, latency);
+    }
+
+    /**
+     * Returns true if a request is in progress
+     *
+     * @return True if a request is in progress
+     */
+
+    public boolean isFetching() {
+        return pending != null;
+    }
+
+    public void cancel() {
+        if (pending != null) {
+            handler.removeCallbacks(pending);
+            pending = null;
+        }
+    }
+
+    private String getValidator() {
+        return "v" + ((SystemClock.uptimeMillis() - startTime) / changeInterval);
+    }
+}
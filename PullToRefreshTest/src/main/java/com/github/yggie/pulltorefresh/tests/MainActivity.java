@@ -1,9 +1,7 @@
 package com.github.yggie.pulltorefresh.tests;
 
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
 
 import android.os.Bundle;
@@ -11,10 +9,9 @@ import android.os.Handler;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentActivity;
 import android.view.Menu;
-import android.widget.BaseAdapter;
 import android.widget.ListAdapter;
-import android.widget.SimpleAdapter;
 
+import com.github.yggie.pulltorefresh.ColumnarListAdapter;
 import com.github.yggie.pulltorefresh.PullListFragment;
 
 public class MainActivity extends FragmentActivity {
@@ -26,10 +23,10 @@ public class MainActivity extends FragmentActivity {
 
         if (savedInstanceState == null) {
             // populate the ListView with random data
-            final List<Map<String, String>> adapterList = defaultList();
-            final BaseAdapter adapter = new SimpleAdapter(MainActivity.this, adapterList,
+            final ColumnarListAdapter adapter = new ColumnarListAdapter(MainActivity.this,
                     R.layout.item, new String[]{"title", "content"},
                     new int[]{R.id.title, R.id.content});
+            populate(adapter);
 
             // TODO fix null pointer exception when orientation changes quickly
             final Handler handler = new Handler();
@@ -57,32 +54,15 @@ public class MainActivity extends FragmentActivity {
     /**
      * Generates some content for the test app
      *
-     * @return
+     * @param adapter The adapter to add the rows to
      */
 
-    private List<Map<String, String>> defaultList() {
-        LinkedList<Map<String, String>> list = new LinkedList<Map<String, String>>();
+    private void populate(ColumnarListAdapter adapter) {
+        final Random random = new Random();
 
         for (int i = 0; i < 20; i++) {
-            list.add(generateMap());
+            adapter.addRow("Haiku number " + random.nextInt(500), genContent());
         }
-
-        return list;
-    }
-
-    /**
-     * Generates a map for the adapter to use
-     *
-     * @return
-     */
-
-    private Map<String, String> generateMap() {
-        Map<String, String> map = new HashMap<String, String>(3);
-
-        map.put("title", "Haiku number " + new Random().nextInt(500));
-        map.put("content", genContent());
-
-        return map;
     }
 
     private static final String[] WORDS = { "I", "show", "me", "no", "yes", "boat", "go", "journey",
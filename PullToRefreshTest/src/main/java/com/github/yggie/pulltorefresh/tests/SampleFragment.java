@@ -2,23 +2,45 @@ package com.github.yggie.pulltorefresh.tests;
 
 import android.graphics.Color;
 import android.os.Bundle;
-import android.os.Handler;
 import android.util.Log;
 import android.view.View;
 import android.widget.LinearLayout;
 import android.widget.ListView;
 
+import com.github.yggie.pulltorefresh.ColumnarListAdapter;
 import com.github.yggie.pulltorefresh.PullListFragment;
+import com.github.yggie.pulltorefresh.PullMetrics;
+import com.github.yggie.pulltorefresh.RefreshPolicy;
 import com.github.yggie.pulltorefresh.StatusView;
 
+import java.io.File;
+
 /**
  * Created by bryan on 27/11/13.
  */
-public class SampleFragment extends PullListFragment implements Runnable {
+public class SampleFragment extends PullListFragment implements RefreshPolicy.Listener,
+        PullListFragment.PullMetricsListener {
+
+    private static final String TAG = SampleFragment.class.getSimpleName();
+
+    /** stands in for a remote server, so it outlives the fragment */
+    private static final FakeRefreshSource source = new FakeRefreshSource(5000, 30000, 64 * 1024);
 
-    private final Handler handler = new Handler();
-    private boolean random = false;
-    private boolean refreshing = false;
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        // shows the list from the previous launch while the adapter is being prepared
+        setSnapshot(new File(getActivity().getFilesDir(), "sample.snapshot"),
+                new ColumnarListAdapter.Codec(getActivity(), R.layout.item,
+                        new String[]{"title", "content"}, new int[]{R.id.title, R.id.content}));
+
+        // pulls within 10 seconds are skipped, and revalidated for up to a minute
+        source.setAlternateFailures(true);
+        setRefreshPolicy(new RefreshPolicy.MaxAge(10000, 60000));
+        setRefreshPolicyListener(this);
+        setPullMetricsListener(this);
+    }
 
     /**
      * Override this method to ensure all the views have been initialized
@@ -47,18 +69,13 @@ public class SampleFragment extends PullListFragment implements Runnable {
         status.setLayoutParams(new LinearLayout.LayoutParams(size, size));
         status.setStrokeWidth(strokeWidth);
         status.setStrokeColor(Color.WHITE);
+        status.setSpriteMode(true);
+        status.enableLowPowerMode(2000, 60);
         topPulledView.setStatusView(status, status);
-
-        if (savedInstanceState != null) {
-            refreshing = savedInstanceState.getBoolean("isRefreshing");
-            if (refreshing) {
-                handler.postDelayed(this, 5000);
-            }
-        }
     }
 
     /**
-     * Simply waits for a short period of time before responding
+     * Fetches from the fake source, conditionally if the refresh policy allows it
      *
      * @param previousState The previous pull state
      * @param isTop If true, the top view is begin pulled
@@ -69,45 +86,75 @@ public class SampleFragment extends PullListFragment implements Runnable {
     public void onRefreshRequest(PullState previousState, boolean isTop, boolean fromRestoredState) {
         super.onRefreshRequest(previousState, isTop, fromRestoredState);
 
-        // simply waits 1 second before completing the request
-        if (!fromRestoredState) {
-            refreshing = true;
-            handler.postDelayed(this, 5000);
+        // after a configuration change the retained task is still running, it is only lost if
+        // the process was restarted
+        if (!fromRestoredState || getRefreshTask() == null) {
+            final boolean conditional = getRefreshDecision() == RefreshPolicy.Decision.CONDITIONAL;
+            startRefreshTask(new FetchTask(conditional ? getRefreshValidator(isTop) : null));
         }
     }
 
     @Override
-    protected void onRequestComplete(boolean success, boolean isTop) {
-        super.onRequestComplete(success, isTop);
+    public void onListItemClick(ListView listView, View view, int position, long id) {
+        super.onListItemClick(listView, view, position, id);
+//        Log.d("***", "You clicked " + position + " with id = " + id);
+    }
 
-        refreshing = false;
+    @Override
+    public void onRefreshDecision(RefreshPolicy.Decision decision, boolean isTop, long bytesSaved) {
+        Log.d(TAG, "[onRefreshDecision] " + decision + " saved " + bytesSaved + " bytes");
     }
 
     @Override
-    public void onSaveInstanceState(Bundle outState) {
-        super.onSaveInstanceState(outState);
+    public void onPullMetrics(PullMetrics metrics) {
+        Log.d(TAG, "[onPullMetrics] " + metrics.getFrameCount() + " frames, p50/p90/p99 " +
+                metrics.getFrameTimeP50() + "/" + metrics.getFrameTimeP90() + "/" +
+                metrics.getFrameTimeP99() + "ms, " + metrics.getJankyFrameCount() + " janky, " +
+                metrics.getCatchUpRunCount() + " catch up runs");
+    }
+
+    /**
+     * Fetches from the fake source. Holds no reference to the fragment, so it can be retained
+     */
 
-        if (outState != null) {
-            outState.putBoolean("isRefreshing", refreshing);
+    private static class FetchTask extends RefreshTask implements FakeRefreshSource.Callback {
+
+        private final String validator;
+        private String resultValidator;
+        private long resultBytes;
+
+        private FetchTask(String validator) {
+            this.validator = validator;
         }
-    }
 
-    @Override
-    public void onDestroy() {
-        super.onDestroy();
+        @Override
+        protected void onStart() {
+            source.fetch(validator, this);
+        }
 
-        handler.removeCallbacks(this);
-    }
+        @Override
+        protected void onCancel() {
+            source.cancel();
+        }
 
-    @Override
-    public void onListItemClick(ListView listView, View view, int position, long id) {
-        super.onListItemClick(listView, view, position, id);
-//        Log.d("***", "You clicked " + position + " with id = " + id);
-    }
+        @Override
+        public void onResult(boolean success, boolean notModified, String validator,
+                             long contentBytes) {
+            if (success && notModified) {
+                completeNotModified();
+            } else {
+                resultValidator = validator;
+                resultBytes = contentBytes;
+                complete(success);
+            }
+        }
 
-    @Override
-    public void run() {
-        random = !random;
-        requestComplete(random);
+        @Override
+        protected void onDeliver(PullListFragment fragment, boolean success, boolean notModified) {
+            if (success && !notModified) {
+                fragment.setRefreshValidator(resultValidator, resultBytes);
+            }
+            super.onDeliver(fragment, success, notModified);
+        }
     }
 }